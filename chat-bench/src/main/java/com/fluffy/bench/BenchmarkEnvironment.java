@@ -0,0 +1,133 @@
+package com.fluffy.bench;
+
+import com.fluffy.callbacks.OnMessageReceivedCallback;
+import com.fluffy.client.models.Client;
+import com.fluffy.server.models.Server;
+import com.fluffy.server.models.User;
+import com.fluffy.server.services.UserService;
+import com.fluffy.util.ApplicationContext;
+import com.fluffy.util.Environment;
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Properties;
+
+/**
+ * Спільне оточення вимірювань: налаштування сервера та клієнта, сервер без
+ * бази даних на loopback-інтерфейсі та клієнти до нього.
+ * @author Сивоконь Вадим
+ */
+final class BenchmarkEnvironment {
+    /**
+     * Пароль усіх користувачів.
+     */
+    private static final String PASSWORD = "bench";
+
+    private BenchmarkEnvironment() { }
+
+    /**
+     * Завантажує налаштування сервера та клієнта, потім налаштування
+     * вимірювань і, нарешті, значення з аргументів запуску. Має бути
+     * викликаний до першого звернення до класів сервера та клієнта.
+     * @param args аргументи запуску у вигляді ключ=значення
+     * @throws IOException якщо не вдалося прочитати налаштування
+     */
+    static void initialize(final String[] args) throws IOException {
+        ClassLoader classLoader = BenchmarkEnvironment.class.getClassLoader();
+        Enumeration<URL> files = classLoader.getResources("properties.xml");
+        while (files.hasMoreElements()) {
+            try (InputStream xmlFile = files.nextElement().openStream()) {
+                Environment.initialize(xmlFile);
+            }
+        }
+        try (InputStream xmlFile = classLoader.getResourceAsStream("benchmark.xml")) {
+            Environment.initialize(xmlFile);
+        }
+
+        Properties overrides = new Properties();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Очікується ключ=значення: " + arg);
+            }
+            overrides.setProperty(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        overrides.storeToXML(xml, null);
+        Environment.initialize(new ByteArrayInputStream(xml.toByteArray()));
+
+        // будь-яке ім'я приймається з тим самим паролем
+        final String hash = BCrypt.hashpw(PASSWORD, BCrypt.gensalt(4));
+        UserService userService = (UserService) Proxy.newProxyInstance(classLoader,
+                new Class<?>[] {UserService.class}, (proxy, method, methodArgs) -> {
+                    switch (method.getName()) {
+                        case "findByName":
+                            User user = new User();
+                            user.setId(((String) methodArgs[0]).hashCode());
+                            user.setName((String) methodArgs[0]);
+                            user.setPassword(hash);
+                            return user;
+                        case "findAll":
+                            return new ArrayList<User>();
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        ApplicationContext.registerObject("userService", userService);
+    }
+
+    /**
+     * Повертає ціле значення властивості.
+     * @param key назва (ключ) властивості
+     * @return значення властивості
+     */
+    static int getInt(final String key) {
+        return Integer.parseInt(Environment.getProperty(key));
+    }
+
+    /**
+     * Запускає сервер на порту bench.port (0 - будь-який вільний).
+     * @return запущений сервер
+     * @throws IOException якщо не вдалося запустити сервер
+     */
+    static Server startServer() throws IOException {
+        int port = getInt("bench.port");
+        if (port == 0) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+        }
+        Server server = new Server(port);
+        server.startup(message -> { }, count -> { });
+        return server;
+    }
+
+    /**
+     * Підключає клієнта до сервера.
+     * @param server сервер
+     * @param name ім'я користувача
+     * @param onMessageReceivedCallback обробник отримання звичайного повідомлення
+     * @return підключений клієнт
+     * @throws IOException якщо не вдалося підключитися
+     */
+    static Client connect(final Server server,
+                          final String name,
+                          final OnMessageReceivedCallback onMessageReceivedCallback) throws IOException {
+        Client client = new Client("127.0.0.1", server.getPort(), name, PASSWORD);
+        client.connect(message -> { },
+                message -> System.err.println("Не вдалося надіслати повідомлення від " + name),
+                onMessageReceivedCallback,
+                () -> System.err.println("Сервер відключив " + name),
+                () -> { },
+                (room, error) -> { });
+        return client;
+    }
+}
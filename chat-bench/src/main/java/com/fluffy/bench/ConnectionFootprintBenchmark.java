@@ -0,0 +1,140 @@
+package com.fluffy.bench;
+
+import com.fluffy.client.models.Client;
+import com.fluffy.server.models.Server;
+import com.fluffy.util.Environment;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Вимірює ресурси, що займають одночасні з'єднання: кількість платформних
+ * потоків, використану купу після збирання сміття та резидентну пам'ять
+ * процесу (лише в Linux). Сервер і клієнти працюють в одному процесі, тому
+ * значення включають обидві сторони. Режими порівнюються аргументами
+ * запуску, наприклад server.transport=nio або server.threads=virtual
+ * client.threads=virtual (віртуальні потоки - лише на JVM 21+).
+ * @author Сивоконь Вадим
+ */
+public final class ConnectionFootprintBenchmark {
+    /**
+     * Максимальний час очікування авторизації групи клієнтів у мілісекундах.
+     */
+    private static final long AUTH_TIMEOUT = 30000;
+
+    /**
+     * Пауза між перевірками авторизації в мілісекундах.
+     */
+    private static final long POLL_PERIOD = 10;
+
+    /**
+     * Час, за який з'єднання встигають завершити початковий обмін, у
+     * мілісекундах.
+     */
+    private static final long SETTLE_TIME = 1000;
+
+    private ConnectionFootprintBenchmark() { }
+
+    /**
+     * Точка входу в програму.
+     * @param args налаштування у вигляді ключ=значення
+     * @throws Exception якщо вимірювання не вдалося
+     */
+    public static void main(final String[] args) throws Exception {
+        BenchmarkEnvironment.initialize(args);
+        int count = BenchmarkEnvironment.getInt("bench.footprint.connections");
+        int batch = BenchmarkEnvironment.getInt("bench.footprint.batch");
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        Server server = BenchmarkEnvironment.startServer();
+        List<Client> clients = new ArrayList<>(count);
+        try {
+            // перше з'єднання прогріває класи та пули потоків
+            clients.add(BenchmarkEnvironment.connect(server, "warmup", message -> { }));
+            awaitAuthenticated(clients, 0);
+            Thread.sleep(SETTLE_TIME);
+
+            long heapBefore = usedHeapAfterGc(memory);
+            long rssBefore = residentSetSize();
+            int threadsBefore = threads.getThreadCount();
+
+            // група підключається, лише коли попередня авторизована, щоб не
+            // переповнити чергу авторизації
+            for (int i = 0; i < count; i += batch) {
+                int from = clients.size();
+                for (int j = i; j < Math.min(count, i + batch); ++j) {
+                    clients.add(BenchmarkEnvironment.connect(server, "user-" + j, message -> { }));
+                }
+                awaitAuthenticated(clients, from);
+            }
+            Thread.sleep(SETTLE_TIME);
+
+            long heap = usedHeapAfterGc(memory) - heapBefore;
+            long rss = residentSetSize() - rssBefore;
+            int platformThreads = threads.getThreadCount() - threadsBefore;
+            System.out.printf("transport=%s server.threads=%s client.threads=%s java=%s%n",
+                    Environment.getProperty("server.transport"), Environment.getProperty("server.threads"),
+                    Environment.getProperty("client.threads"), System.getProperty("java.version"));
+            System.out.printf("connections=%d server clients=%d platform threads +%d%n",
+                    count, server.getClientsCount() - 1, platformThreads);
+            System.out.printf("heap +%d KiB (%.1f KiB per connection)%n", heap / 1024, heap / 1024.0 / count);
+            if (rssBefore >= 0) {
+                System.out.printf("rss +%d KiB (%.1f KiB per connection)%n", rss / 1024, rss / 1024.0 / count);
+            }
+        } finally {
+            for (Client client : clients) {
+                client.disconnect();
+            }
+            server.shutdown();
+        }
+        System.exit(0);
+    }
+
+    private static void awaitAuthenticated(final List<Client> clients, final int from) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + AUTH_TIMEOUT;
+        for (int i = from; i < clients.size(); ++i) {
+            // сесійний токен надсилається після успішної авторизації
+            while (clients.get(i).getSessionToken() == null) {
+                if (!clients.get(i).isActive() || System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException("Клієнт " + clients.get(i).getName() + " не авторизувався");
+                }
+                Thread.sleep(POLL_PERIOD);
+            }
+        }
+    }
+
+    private static long usedHeapAfterGc(final MemoryMXBean memory) throws InterruptedException {
+        System.gc();
+        Thread.sleep(POLL_PERIOD * 10);
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Повертає резидентну пам'ять процесу.
+     * @return розмір у байтах або -1, якщо його неможливо визначити
+     */
+    private static long residentSetSize() {
+        Path status = Paths.get("/proc/self/status");
+        if (!Files.isReadable(status)) {
+            return -1;
+        }
+        try {
+            for (String line : Files.readAllLines(status)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // формат файлу не відповідає очікуваному
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,139 @@
+package com.fluffy.bench;
+
+import com.fluffy.client.models.Client;
+import com.fluffy.messaging.Message;
+import com.fluffy.server.models.Server;
+import com.fluffy.util.Environment;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Вимірює затримку пересилання повідомлення від одного клієнта до іншого
+ * через сервер (клієнт - сервер - клієнт). Кожне наступне повідомлення
+ * надсилається лише після отримання попереднього, тому вимірюється затримка,
+ * а не пропускна здатність. Транспорт сервера та інші налаштування
+ * змінюються аргументами запуску, наприклад server.transport=nio.
+ * @author Сивоконь Вадим
+ */
+public final class RelayLatencyBenchmark {
+    /**
+     * Максимальний час очікування одного повідомлення в мілісекундах.
+     */
+    private static final long RECEIVE_TIMEOUT = 5000;
+
+    /**
+     * Час очікування пробного повідомлення до завершення авторизації в
+     * мілісекундах.
+     */
+    private static final long PROBE_TIMEOUT = 100;
+
+    /**
+     * Максимальна кількість пробних повідомлень.
+     */
+    private static final int PROBE_ATTEMPTS = 50;
+
+    private RelayLatencyBenchmark() { }
+
+    /**
+     * Точка входу в програму.
+     * @param args налаштування у вигляді ключ=значення
+     * @throws Exception якщо вимірювання не вдалося
+     */
+    public static void main(final String[] args) throws Exception {
+        BenchmarkEnvironment.initialize(args);
+        int warmup = BenchmarkEnvironment.getInt("bench.relay.warmup");
+        int count = BenchmarkEnvironment.getInt("bench.relay.messages");
+
+        Server server = BenchmarkEnvironment.startServer();
+        BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+        Client sender = BenchmarkEnvironment.connect(server, "sender", message -> { });
+        Client receiver = BenchmarkEnvironment.connect(server, "receiver", message -> {
+            if (message.getType() == Message.Type.TEXT) {
+                received.add(message);
+            }
+        });
+        try {
+            // обидва клієнти мають бути авторизовані до початку вимірювання:
+            // повідомлення, надіслані раніше, отримувач може не побачити
+            int probe = 0;
+            while (relay(sender, received, -1 - probe, PROBE_TIMEOUT) < 0) {
+                if (++probe == PROBE_ATTEMPTS) {
+                    throw new IllegalStateException("Клієнти не авторизувалися");
+                }
+            }
+
+            for (int i = 0; i < warmup; ++i) {
+                if (relay(sender, received, i, RECEIVE_TIMEOUT) < 0) {
+                    throw new IllegalStateException("Повідомлення " + i + " не отримане");
+                }
+            }
+            long[] latencies = new long[count];
+            for (int i = 0; i < count; ++i) {
+                latencies[i] = relay(sender, received, i, RECEIVE_TIMEOUT);
+                if (latencies[i] < 0) {
+                    throw new IllegalStateException("Повідомлення " + i + " не отримане");
+                }
+            }
+
+            Arrays.sort(latencies);
+            long total = 0;
+            for (long latency : latencies) {
+                total += latency;
+            }
+            System.out.printf("transport=%s codec=%s messages=%d%n",
+                    Environment.getProperty("server.transport"), Environment.getProperty("messaging.codec"), count);
+            System.out.printf("avg=%.3f ms p50=%.3f ms p99=%.3f ms max=%.3f ms%n",
+                    total / 1e6 / count, percentile(latencies, 50), percentile(latencies, 99),
+                    latencies[count - 1] / 1e6);
+        } finally {
+            sender.disconnect();
+            receiver.disconnect();
+            server.shutdown();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Надсилає повідомлення та очікує, поки його отримає інший клієнт.
+     * @param sender клієнт-відправник
+     * @param received черга повідомлень, отриманих іншим клієнтом
+     * @param number номер повідомлення
+     * @param timeout максимальний час очікування в мілісекундах
+     * @return затримка в наносекундах або -1, якщо повідомлення не отримане
+     * @throws InterruptedException якщо очікування було перерване
+     */
+    private static long relay(final Client sender,
+                              final BlockingQueue<Message> received,
+                              final int number,
+                              final long timeout) throws InterruptedException {
+        Message message = new Message();
+        message.setType(Message.Type.TEXT);
+        message.setName(sender.getName());
+        message.setContent("message " + number);
+        message.setDateTime(LocalDateTime.now());
+        message.setIp("127.0.0.1");
+        message.setStatus(Message.Status.EATING);
+
+        long start = System.nanoTime();
+        sender.sendMessage(message);
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (true) {
+            Message reply = received.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (reply == null) {
+                return -1;
+            }
+            // запізнілі пробні повідомлення пропускаються
+            if (message.getContent().equals(reply.getContent())) {
+                return System.nanoTime() - start;
+            }
+        }
+    }
+
+    private static double percentile(final long[] sorted, final int percent) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)] / 1e6;
+    }
+}
@@ -20,6 +20,7 @@ import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
 import javafx.scene.control.TextArea;
+import javafx.scene.control.TextInputDialog;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.HBox;
@@ -60,6 +61,17 @@ public class PrimaryStageController extends AbstractStageController {
     @FXML
     private Text nameText;
 
+    /**
+     * Текстовий елемент із назвою поточної кімнати.
+     */
+    @FXML
+    private Text roomText;
+
+    /**
+     * Назва кімнати, історія якої відображається.
+     */
+    private String displayedRoom;
+
     /**
      * Випадаючий список для обрання статусу користувача.
      */
@@ -220,7 +232,20 @@ public class PrimaryStageController extends AbstractStageController {
         ObservableList<HBox> elements = historyListView.getItems();
         MessageElement messageElement = new MessageElement(message);
         messageElement.update();
-        elements.add(messageElement.container);
+        messageElement.container.setUserData(message.getId());
+
+        // повідомлення історії вставляються за номером, решта - в кінець
+        int index = elements.size();
+        if (message.getId() > 0) {
+            for (int i = 0; i < elements.size(); ++i) {
+                long id = (Long) elements.get(i).getUserData();
+                if (id > message.getId()) {
+                    index = i;
+                    break;
+                }
+            }
+        }
+        elements.add(index, messageElement.container);
     }
 
     // Обробники подій
@@ -257,6 +282,25 @@ public class PrimaryStageController extends AbstractStageController {
         }
     }
 
+    private void onHistoryReset() {
+        // пропущені повідомлення на сервері вже не зберігаються - історія
+        // відображається заново
+        historyListView.getItems().clear();
+    }
+
+    private void onRoomChanged(final String room, final String error) {
+        if (error != null) {
+            AlertUtil.show(Alert.AlertType.WARNING, "Попередження", "Не вдалося перейти до кімнати", error);
+            return;
+        }
+        if (!room.equals(displayedRoom)) {
+            // історія попередньої кімнати не відображається
+            historyListView.getItems().clear();
+            displayedRoom = room;
+        }
+        roomText.setText("Кімната: " + room);
+    }
+
     private void onConnectionStateChange(final boolean connected) {
         serverText.setText(clientService.getServerInfo());
         messageTextArea.setDisable(!connected);
@@ -264,10 +308,12 @@ public class PrimaryStageController extends AbstractStageController {
         statusComboBox.setDisable(!connected);
 
         if (!connected) {
+            // історія повідомлень залишається - повторне підключення до того
+            // самого сервера її продовжить
             statusComboBox.setValue(null);
             nameText.setText("");
+            roomText.setText("");
             messageTextArea.setText("");
-            historyListView.getItems().clear();
         }
     }
 
@@ -305,7 +351,12 @@ public class PrimaryStageController extends AbstractStageController {
         historyListView.getItems().addListener(new ListChangeListener<HBox>() {
             @Override
             public void onChanged(final javafx.collections.ListChangeListener.Change<? extends HBox> c) {
-                historyListView.scrollTo(c.getList().size() - 1);
+                // прокрутка лише для нових повідомлень, а не для сторінок історії
+                while (c.next()) {
+                    if (c.wasAdded() && c.getTo() == c.getList().size()) {
+                        historyListView.scrollTo(c.getList().size() - 1);
+                    }
+                }
             }
         });
 
@@ -334,6 +385,14 @@ public class PrimaryStageController extends AbstractStageController {
             Platform.runLater(() -> {
                 PrimaryStageController.this.onForceClose();
             });
+        }, () -> {
+            Platform.runLater(() -> {
+                PrimaryStageController.this.onHistoryReset();
+            });
+        }, (room, error) -> {
+            Platform.runLater(() -> {
+                PrimaryStageController.this.onRoomChanged(room, error);
+            });
         });
     }
 
@@ -349,8 +408,12 @@ public class PrimaryStageController extends AbstractStageController {
                 @SuppressWarnings("unchecked")
                 Map<String, Object> temp = (Map<String, Object>) lastResponse;
 
-                clientService.connect((String) temp.get("host"), (Integer) temp.get("port"),
-                        (String) temp.get("name"), (String) temp.get("password"));
+                if (!clientService.connect((String) temp.get("host"), (Integer) temp.get("port"),
+                        (String) temp.get("name"), (String) temp.get("password"))) {
+                    // інший сервер або користувач - попередня історія не відображається
+                    historyListView.getItems().clear();
+                    displayedRoom = null;
+                }
 
                 nameText.setText((String) temp.get("name"));
                 onConnectionStateChange(true);
@@ -372,6 +435,36 @@ public class PrimaryStageController extends AbstractStageController {
         }
     }
 
+    /**
+     * Обробник натискання на кнопку меню для завантаження старіших
+     * повідомлень.
+     */
+    public void historyMenuItemOnAction() {
+        if (!clientService.isClientActive()) {
+            AlertUtil.show(Alert.AlertType.WARNING, "Попередження", "Попередження", "Підключення до сервера відсутнє");
+        } else if (!clientService.requestHistory()) {
+            AlertUtil.show(Alert.AlertType.INFORMATION, "Повідомлення", "Повідомлення", "Уся історія вже завантажена");
+        }
+    }
+
+    /**
+     * Обробник натискання на кнопку меню для переходу до іншої кімнати.
+     */
+    public void roomMenuItemOnAction() {
+        if (!clientService.isClientActive()) {
+            AlertUtil.show(Alert.AlertType.WARNING, "Попередження", "Попередження", "Підключення до сервера відсутнє");
+            return;
+        }
+        TextInputDialog dialog = new TextInputDialog(displayedRoom);
+        dialog.setTitle("Кімната");
+        dialog.setHeaderText("Перехід до кімнати");
+        dialog.setContentText("Назва кімнати:");
+        Optional<String> result = dialog.showAndWait();
+        if (result.isPresent() && !result.get().trim().isEmpty() && !result.get().trim().equals(displayedRoom)) {
+            clientService.joinRoom(result.get().trim());
+        }
+    }
+
     /**
      * Обробник натискання на кнопку для надіслання повідомлення.
      */
@@ -1,31 +1,42 @@
 package com.fluffy.client.models;
 
 import com.fluffy.callbacks.OnForceCloseCallback;
+import com.fluffy.callbacks.OnHistoryResetCallback;
 import com.fluffy.callbacks.OnMessageReceivedCallback;
 import com.fluffy.callbacks.OnMessageSendCallback;
 import com.fluffy.callbacks.OnMessageSendFailCallback;
+import com.fluffy.callbacks.OnRoomChangedCallback;
+import com.fluffy.messaging.FrameCompression;
+import com.fluffy.messaging.Frames;
 import com.fluffy.messaging.Message;
+import com.fluffy.messaging.MessageCodec;
+import com.fluffy.messaging.MessageCodecs;
+import com.fluffy.util.ConnectionThreads;
 import com.fluffy.util.Environment;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Клас моделі клієнта.
  * @author Сивоконь Вадим
  */
 public class Client implements Runnable {
-    /**
-     * Період виконання циклу в основному методі {@link #run() run}.
-     */
-    private static final int LISTENING_PERIOD = Integer.parseInt(Environment.getProperty("client.listening-period"));
-
     /**
      * Адреса для отримання IP сервера.
      */
@@ -36,6 +47,34 @@ public class Client implements Runnable {
      */
     private static final int IP_TEST_PORT = Integer.parseInt(Environment.getProperty("client.ip-test-port"));
 
+    /**
+     * Кодек повідомлень.
+     */
+    private static final MessageCodec CODEC = MessageCodecs.byName(Environment.getProperty("messaging.codec"));
+
+    /**
+     * Фабрика потоків для отримання повідомлень (платформні або віртуальні
+     * потоки).
+     */
+    private static final ThreadFactory READER_THREADS = ConnectionThreads.forMode(Environment.getProperty("client.threads"));
+
+    /**
+     * Чи пропонує клієнт серверу стиснення кадрів.
+     */
+    private static final boolean COMPRESSION_ENABLED =
+            FrameCompression.DEFLATE.equalsIgnoreCase(Environment.getProperty("client.compression"));
+
+    /**
+     * Мінімальний розмір (у байтах) повідомлення, що стискається.
+     */
+    private static final int COMPRESSION_THRESHOLD = Integer.parseInt(Environment.getProperty("client.compression.threshold"));
+
+    /**
+     * Кількість повідомлень, що запитуються за один раз під час отримання
+     * пропущених повідомлень, поки її не змінено викликом sync.
+     */
+    private static final int HISTORY_PAGE_SIZE = Integer.parseInt(Environment.getProperty("client.history.page-size"));
+
     /**
      * Адреса сервера.
      */
@@ -56,15 +95,68 @@ public class Client implements Runnable {
      */
     private final String password;
 
+    /**
+     * Сесійний токен, виданий сервером, для повторної авторизації без
+     * перевірки пароля.
+     */
+    private volatile String sessionToken;
+
+    /**
+     * Назва кімнати, учасником якої є клієнт (до підключення - кімната, до
+     * якої потрібно приєднатися; null - кімната за замовчуванням).
+     */
+    private volatile String room;
+
+    /**
+     * Чи дозволив сервер надсилати йому стиснені кадри.
+     */
+    private volatile boolean compression;
+
+    /**
+     * Номер найстарішого отриманого повідомлення історії (0, якщо таких
+     * повідомлень не було).
+     */
+    private volatile long oldestMessageId;
+
+    /**
+     * Чи отримана вся історія, що зберігається на сервері.
+     */
+    private volatile boolean historyComplete;
+
+    /**
+     * Номер найновішого отриманого повідомлення історії (0, якщо таких
+     * повідомлень не було).
+     */
+    private volatile long newestMessageId;
+
+    /**
+     * Номери отриманих повідомлень - повідомлення, отримане повторно
+     * (наприклад, і в історії, і в пропущених), не відображається вдруге.
+     */
+    private final Set<Long> receivedMessageIds = Collections.synchronizedSet(new HashSet<>());
+
+    /**
+     * Кількість повідомлень, що запитуються за один раз під час отримання
+     * пропущених повідомлень.
+     */
+    private volatile int syncCount = HISTORY_PAGE_SIZE;
+
     /**
      * Потік для отримання повідомлень від сервера.
      */
-    private ObjectInputStream objectInputStream;
+    private DataInputStream dataInputStream;
 
     /**
      * Потік для надсилання повідомлень на сервер.
      */
-    private ObjectOutputStream objectOutputStream;
+    private DataOutputStream dataOutputStream;
+
+    /**
+     * Блокування надсилання повідомлень. Запис у сокет може очікувати, тому
+     * монітор, що закріпив би віртуальний потік читання (він відповідає на
+     * перевірку активності) за потоком-носієм, не використовується.
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
 
     /**
      * Сокет клієнта.
@@ -74,7 +166,7 @@ public class Client implements Runnable {
     /**
      * Поточний статус клієнта.
      */
-    private boolean active;
+    private volatile boolean active;
 
     // Обробники подій
 
@@ -98,6 +190,16 @@ public class Client implements Runnable {
      */
     private OnForceCloseCallback onForceCloseCallback;
 
+    /**
+     * Обробник події скидання історії повідомлень сервером.
+     */
+    private OnHistoryResetCallback onHistoryResetCallback;
+
+    /**
+     * Обробник події відповіді на перехід до кімнати.
+     */
+    private OnRoomChangedCallback onRoomChangedCallback;
+
     private void onMessageSend(final Message message) {
         if (onMessageSendCallback != null && !message.getType().equals(Message.Type.NOTIFICATION)) {
             // звичайне повідомлення - можна рахувати як таке, що можна
@@ -114,13 +216,69 @@ public class Client implements Runnable {
 
     private void onMessageReceived(final Message message) {
         Message.Type type = message.getType();
+        if (!type.equals(Message.Type.NOTIFICATION) && message.getId() > 0) {
+            if (!receivedMessageIds.add(message.getId())) {
+                return;
+            }
+            if (oldestMessageId == 0 || message.getId() < oldestMessageId) {
+                oldestMessageId = message.getId();
+            }
+            if (message.getId() > newestMessageId) {
+                newestMessageId = message.getId();
+            }
+        }
         if (onMessageReceivedCallback != null && !type.equals(Message.Type.NOTIFICATION)) {
             onMessageReceivedCallback.onMessageReceived(message);
+        } else if (type.equals(Message.Type.NOTIFICATION) && message.getStatus().equals(Message.NotificationStatus.HISTORY)) {
+            // порожня сторінка означає, що старіших повідомлень немає
+            if (message.getCount() == 0) {
+                historyComplete = true;
+            }
+        } else if (type.equals(Message.Type.NOTIFICATION) && message.getStatus().equals(Message.NotificationStatus.SYNC)) {
+            // пропущені повідомлення запитуються, доки сервер їх надсилає
+            if (message.getCount() > 0) {
+                sync(message.getId(), syncCount);
+            }
+        } else if (type.equals(Message.Type.NOTIFICATION) && message.getStatus().equals(Message.NotificationStatus.RESET)) {
+            // пропущені повідомлення на сервері вже не зберігаються - далі
+            // надійде новий знімок історії
+            resetHistory();
+            if (onHistoryResetCallback != null) {
+                onHistoryResetCallback.onHistoryReset();
+            }
+        } else if (type.equals(Message.Type.NOTIFICATION) && message.getStatus().equals(Message.NotificationStatus.JOIN)) {
+            if (message.getContent() == null) {
+                if (!Objects.equals(message.getRoom(), room)) {
+                    // історія попередньої кімнати вже не актуальна
+                    resetHistory();
+                }
+                room = message.getRoom();
+            }
+            if (onRoomChangedCallback != null) {
+                onRoomChangedCallback.onRoomChanged(message.getRoom(), message.getContent());
+            }
         } else if (type.equals(Message.Type.NOTIFICATION) && message.getStatus().equals(Message.NotificationStatus.FORCE_CLOSE)) {
             onForceClose();
+        } else if (type.equals(Message.Type.NOTIFICATION) && message.getStatus().equals(Message.NotificationStatus.SESSION)) {
+            sessionToken = message.getToken();
+            compression = FrameCompression.DEFLATE.equalsIgnoreCase(message.getCompression());
+        } else if (type.equals(Message.Type.NOTIFICATION) && message.getStatus().equals(Message.NotificationStatus.KEEPING_ALIVE)) {
+            // сервер перевіряє активність - відповідаємо, щоб з'єднання не
+            // вважалося втраченим
+            Message reply = new Message();
+            reply.setType(Message.Type.NOTIFICATION);
+            reply.setStatus(Message.NotificationStatus.KEEPING_ALIVE);
+            sendMessage(reply);
         }
     }
 
+    private void resetHistory() {
+        receivedMessageIds.clear();
+        oldestMessageId = 0;
+        newestMessageId = 0;
+        historyComplete = false;
+    }
+
     private void onForceClose() {
         onForceCloseCallback.onForceClose();
     }
@@ -145,23 +303,31 @@ public class Client implements Runnable {
      * @param onMessageSendFailCallback обробник невдалого надіслання повідомлення
      * @param onMessageReceivedCallback обробник отримання звичайного повідомлення
      * @param onForceCloseCallback обробник примусового відключення від сервера
+     * @param onHistoryResetCallback обробник скидання історії повідомлень
+     * @param onRoomChangedCallback обробник відповіді на перехід до кімнати
      * @throws IOException якщо сталася помилка під час роботи із сокетами або
      *         IO-потоками
      */
     public void connect(final OnMessageSendCallback onMessageSendCallback,
                         final OnMessageSendFailCallback onMessageSendFailCallback,
                         final OnMessageReceivedCallback onMessageReceivedCallback,
-                        final OnForceCloseCallback onForceCloseCallback) throws IOException {
+                        final OnForceCloseCallback onForceCloseCallback,
+                        final OnHistoryResetCallback onHistoryResetCallback,
+                        final OnRoomChangedCallback onRoomChangedCallback) throws IOException {
         if (!active) {
             clientSocket = new Socket(host, port);
-            objectInputStream = new ObjectInputStream(clientSocket.getInputStream());
-            objectOutputStream = new ObjectOutputStream(clientSocket.getOutputStream());
+            clientSocket.setTcpNoDelay(true);
+            dataInputStream = new DataInputStream(new BufferedInputStream(clientSocket.getInputStream()));
+            dataOutputStream = new DataOutputStream(new BufferedOutputStream(clientSocket.getOutputStream()));
             this.onMessageSendCallback = onMessageSendCallback;
             this.onMessageSendFailCallback = onMessageSendFailCallback;
             this.onMessageReceivedCallback = onMessageReceivedCallback;
             this.onForceCloseCallback = onForceCloseCallback;
+            this.onHistoryResetCallback = onHistoryResetCallback;
+            this.onRoomChangedCallback = onRoomChangedCallback;
+            compression = false;
             active = true;
-            new Thread(this).start();
+            READER_THREADS.newThread(this).start();
 
             // перше повідомлення буде містити авторизаційні дані
             Message message = new Message();
@@ -169,6 +335,15 @@ public class Client implements Runnable {
             message.setStatus(Message.NotificationStatus.AUTH);
             message.setName(name);
             message.setContent(password);
+            // за наявності токена сервер авторизує без перевірки пароля
+            message.setToken(sessionToken);
+            // за наявності номера сервер надішле лише пропущені повідомлення
+            // кімнати
+            message.setRoom(room);
+            message.setId(newestMessageId);
+            if (COMPRESSION_ENABLED) {
+                message.setCompression(FrameCompression.DEFLATE);
+            }
             sendMessage(message);
         }
     }
@@ -194,10 +369,17 @@ public class Client implements Runnable {
      * Надсилає повідомлення на сервер.
      * @param message об'єкт повідомлення
      */
-    public synchronized void sendMessage(final Message message) {
+    public void sendMessage(final Message message) {
+        writeLock.lock();
         try {
-            objectOutputStream.writeObject(message);
-            objectOutputStream.flush();
+            byte[] payload = CODEC.encode(message);
+            if (compression && payload.length >= COMPRESSION_THRESHOLD) {
+                byte[] compressed = FrameCompression.compress(Collections.singletonList(ByteBuffer.wrap(payload)));
+                if (compressed != null) {
+                    payload = compressed;
+                }
+            }
+            Frames.write(dataOutputStream, payload);
             onMessageSend(message);
         } catch (IOException e) {
             // клієнт припиняє роботу
@@ -208,34 +390,162 @@ public class Client implements Runnable {
                 ex.printStackTrace();
             }
             onMessageSendFail(message);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Запитує в сервера сторінку історії - повідомлення, старіші за
+     * найстаріше отримане. Сторінка надходить як звичайні повідомлення.
+     * @param count кількість повідомлень
+     * @return чи був надісланий запит (false, якщо вся історія вже отримана)
+     */
+    public boolean requestHistory(final int count) {
+        if (historyComplete || oldestMessageId == 1) {
+            return false;
         }
+        Message message = new Message();
+        message.setType(Message.Type.NOTIFICATION);
+        message.setStatus(Message.NotificationStatus.HISTORY);
+        message.setId(oldestMessageId);
+        message.setCount(count);
+        sendMessage(message);
+        return true;
     }
 
     /**
-     * Основна логіка клієнта, виконується в разі його активності.
+     * Запитує в сервера повідомлення, що йдуть після указаного (наприклад,
+     * пропущені під час відключення). Повідомлення надходять як звичайні та
+     * запитуються частинами, доки сервер їх надсилає.
+     * @param afterId номер останнього отриманого повідомлення
+     * @param count кількість повідомлень, що запитуються за один раз
+     */
+    public void sync(final long afterId, final int count) {
+        syncCount = count;
+        if (afterId > newestMessageId) {
+            newestMessageId = afterId;
+        }
+        Message message = new Message();
+        message.setType(Message.Type.NOTIFICATION);
+        message.setStatus(Message.NotificationStatus.SYNC);
+        message.setId(afterId);
+        message.setCount(count);
+        sendMessage(message);
+    }
+
+    /**
+     * Запитує перехід до іншої кімнати. Після підтвердження сервер надішле
+     * історію кімнати.
+     * @param name назва кімнати
+     */
+    public void joinRoom(final String name) {
+        Message message = new Message();
+        message.setType(Message.Type.NOTIFICATION);
+        message.setStatus(Message.NotificationStatus.JOIN);
+        message.setRoom(name);
+        sendMessage(message);
+    }
+
+    /**
+     * Основна логіка клієнта, виконується в разі його активності. Читання
+     * блокується до отримання наступного повідомлення від сервера.
      */
     @Override
     public void run() {
         while (!Thread.currentThread().isInterrupted() && active) {
-            Message message = null;
+            byte[] payload;
             try {
-                message = (Message) objectInputStream.readObject();
-            } catch (IOException | ClassNotFoundException e) {
-                // не вдалося прочитати повідомлення
+                payload = Frames.read(dataInputStream);
+            } catch (IOException e) {
+                // з'єднання втрачене - клієнт припиняє роботу (якщо це не
+                // було звичайне відключення, наступне надіслання завершиться
+                // невдачею)
+                active = false;
+                try {
+                    clientSocket.close();
+                } catch (IOException ex) {
+                    // сокет уже непридатний до використання
+                }
+                break;
             }
 
-            if (message != null) {
-                onMessageReceived(message);
+            if (FrameCompression.isCompressed(payload, 0, payload.length)) {
+                // стиснений кадр може містити кілька повідомлень (наприклад,
+                // сторінку історії)
+                try {
+                    for (byte[] inner : FrameCompression.decompress(payload, 0, payload.length)) {
+                        decodeAndReceive(inner);
+                    }
+                } catch (IOException e) {
+                    // пошкоджений стиснений кадр
+                }
+            } else {
+                decodeAndReceive(payload);
             }
+        }
+    }
 
-            try {
-                Thread.sleep(LISTENING_PERIOD);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+    private void decodeAndReceive(final byte[] payload) {
+        Message message = null;
+        try {
+            message = CODEC.decode(payload, 0, payload.length);
+        } catch (IOException e) {
+            // не вдалося декодувати повідомлення
+        }
+
+        if (message != null) {
+            onMessageReceived(message);
         }
     }
 
+    /**
+     * Повертає сесійний токен, виданий сервером.
+     * @return сесійний токен або null, якщо його не було видано
+     */
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    /**
+     * Встановлює сесійний токен, отриманий під час попереднього підключення.
+     * Має викликатися до підключення.
+     * @param sessionToken сесійний токен
+     */
+    public void setSessionToken(final String sessionToken) {
+        this.sessionToken = sessionToken;
+    }
+
+    /**
+     * Повертає номер найновішого отриманого повідомлення історії.
+     * @return номер повідомлення або 0, якщо таких повідомлень не було
+     */
+    public long getNewestMessageId() {
+        return newestMessageId;
+    }
+
+    /**
+     * Продовжує історію повідомлень попереднього підключення: після
+     * авторизації сервер надішле лише повідомлення, пропущені з моменту
+     * відключення. Має викликатися до підключення.
+     * @param previous клієнт попереднього підключення
+     */
+    public void resumeFrom(final Client previous) {
+        room = previous.room;
+        receivedMessageIds.addAll(previous.receivedMessageIds);
+        oldestMessageId = previous.oldestMessageId;
+        newestMessageId = previous.newestMessageId;
+        historyComplete = previous.historyComplete;
+    }
+
+    /**
+     * Повертає назву кімнати, учасником якої є клієнт.
+     * @return назва кімнати або null, якщо сервер ще не підтвердив приєднання
+     */
+    public String getRoom() {
+        return room;
+    }
+
     /**
      * Повертає адресу сервера.
      * @return адреса сервера
@@ -252,6 +562,14 @@ public class Client implements Runnable {
         return port;
     }
 
+    /**
+     * Повертає ім'я користувача.
+     * @return ім'я користувача
+     */
+    public String getName() {
+        return name;
+    }
+
     /**
      * Повертає IP клієнта.
      * @return IP клієнта
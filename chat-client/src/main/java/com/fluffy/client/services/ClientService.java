@@ -1,13 +1,16 @@
 package com.fluffy.client.services;
 
 import com.fluffy.callbacks.OnForceCloseCallback;
+import com.fluffy.callbacks.OnHistoryResetCallback;
 import com.fluffy.callbacks.OnMessageReceivedCallback;
 import com.fluffy.callbacks.OnMessageSendCallback;
 import com.fluffy.callbacks.OnMessageSendFailCallback;
+import com.fluffy.callbacks.OnRoomChangedCallback;
 import com.fluffy.client.exceptions.ClientConnectionException;
 import com.fluffy.client.exceptions.ClientDisconnectionException;
 import com.fluffy.client.models.Client;
 import com.fluffy.messaging.Message;
+import com.fluffy.util.Environment;
 
 import java.io.IOException;
 
@@ -16,11 +19,33 @@ import java.io.IOException;
  * @author Сивоконь Вадим
  */
 public class ClientService {
+    /**
+     * Кількість повідомлень в одній сторінці історії.
+     */
+    private static final int HISTORY_PAGE_SIZE = Integer.parseInt(Environment.getProperty("client.history.page-size"));
+
     /**
      * Модель клієнта.
      */
     private Client client;
 
+    /**
+     * Сесійний токен попереднього підключення.
+     */
+    private String sessionToken;
+
+    /**
+     * Сервер та користувач (у вигляді "ім'я@адреса:порт"), для яких був
+     * виданий сесійний токен.
+     */
+    private String sessionOwner;
+
+    /**
+     * Клієнт попереднього підключення, історію повідомлень якого продовжує
+     * наступне підключення того самого користувача до того самого сервера.
+     */
+    private Client previousClient;
+
     /**
      * Обробник події успішного надіслання повідомлення.
      */
@@ -41,12 +66,23 @@ public class ClientService {
      */
     private OnForceCloseCallback onForceCloseCallback;
 
+    /**
+     * Обробник події скидання історії повідомлень сервером.
+     */
+    private OnHistoryResetCallback onHistoryResetCallback;
+
+    /**
+     * Обробник події відповіді на перехід до кімнати.
+     */
+    private OnRoomChangedCallback onRoomChangedCallback;
+
     // Обробники подій
 
     private void onMessageSend(final Message message) {
     }
 
     private void onMessageSendFail(final Message message) {
+        rememberSession();
         client = null;
     }
 
@@ -54,6 +90,23 @@ public class ClientService {
     }
 
     private void onForceCloseCallback() {
+        // сервер відключив примусово - токен більше не дійсний
+        sessionToken = null;
+        sessionOwner = null;
+        previousClient = null;
+    }
+
+    private static String sessionOwner(final String host, final int port, final String name) {
+        return name + "@" + host + ":" + port;
+    }
+
+    private void rememberSession() {
+        Client current = client;
+        if (current != null) {
+            sessionToken = current.getSessionToken();
+            sessionOwner = sessionOwner(current.getHost(), current.getPort(), current.getName());
+            previousClient = current;
+        }
     }
 
     /**
@@ -68,15 +121,21 @@ public class ClientService {
      * @param onMessageSendFailCallback обробник невдалого надіслання повідомлення
      * @param onMessageReceivedCallback обробник отримання звичайного повідомлення
      * @param onForceCloseCallback обробник примусового відключення від сервера
+     * @param onHistoryResetCallback обробник скидання історії повідомлень
+     * @param onRoomChangedCallback обробник відповіді на перехід до кімнати
      */
     public void initCallbacks(final OnMessageSendCallback onMessageSendCallback,
                               final OnMessageSendFailCallback onMessageSendFailCallback,
                               final OnMessageReceivedCallback onMessageReceivedCallback,
-                              final OnForceCloseCallback onForceCloseCallback) {
+                              final OnForceCloseCallback onForceCloseCallback,
+                              final OnHistoryResetCallback onHistoryResetCallback,
+                              final OnRoomChangedCallback onRoomChangedCallback) {
         this.onMessageSendCallback = onMessageSendCallback;
         this.onMessageSendFailCallback = onMessageSendFailCallback;
         this.onMessageReceivedCallback = onMessageReceivedCallback;
         this.onForceCloseCallback = onForceCloseCallback;
+        this.onHistoryResetCallback = onHistoryResetCallback;
+        this.onRoomChangedCallback = onRoomChangedCallback;
     }
 
     /**
@@ -85,15 +144,24 @@ public class ClientService {
      * @param port порт сервера
      * @param name ім'я користувача
      * @param password пароль користувача
+     * @return чи продовжене попереднє підключення (історія повідомлень, що
+     *         вже відображається, залишається актуальною)
      * @throws ClientConnectionException якщо не вдалося підключитися до сервера
      */
-    public void connect(final String host,
-                        final int port,
-                        final String name,
-                        final String password)
+    public boolean connect(final String host,
+                           final int port,
+                           final String name,
+                           final String password)
             throws ClientConnectionException {
         if (client == null) {
             client = new Client(host, port, name, password);
+            boolean resumed = sessionOwner(host, port, name).equals(sessionOwner);
+            if (resumed) {
+                client.setSessionToken(sessionToken);
+                if (previousClient != null) {
+                    client.resumeFrom(previousClient);
+                }
+            }
             try {
                 client.connect((message -> {
                     ClientService.this.onMessageSend(message);
@@ -107,12 +175,16 @@ public class ClientService {
                 }, () -> {
                     ClientService.this.onForceCloseCallback();
                     onForceCloseCallback.onForceClose();
-                });
+                }, onHistoryResetCallback, onRoomChangedCallback);
+                previousClient = null;
+                return resumed;
             } catch (IOException e) {
                 client = null;
                 throw new ClientConnectionException("Не вдалося під'єднатися до сервера " + host + ":" + port + ": " + e.getMessage(), e);
             }
         }
+        // підключення вже існує - історія залишається актуальною
+        return true;
     }
 
     /**
@@ -123,6 +195,7 @@ public class ClientService {
         if (isClientActive()) {
             try {
                 client.disconnect();
+                rememberSession();
                 client = null;
             } catch (IOException e) {
                 throw new ClientDisconnectionException("Не вдалося від'єднатися від сервера: " + e.getMessage(), e);
@@ -165,6 +238,25 @@ public class ClientService {
         }
     }
 
+    /**
+     * Запитує в сервера сторінку старіших повідомлень історії.
+     * @return чи був надісланий запит (false, якщо клієнт не підключений або
+     *         вся історія вже отримана)
+     */
+    public boolean requestHistory() {
+        return isClientActive() && client.requestHistory(HISTORY_PAGE_SIZE);
+    }
+
+    /**
+     * Запитує перехід до іншої кімнати.
+     * @param room назва кімнати
+     */
+    public void joinRoom(final String room) {
+        if (isClientActive()) {
+            client.joinRoom(room);
+        }
+    }
+
     /**
      * Повертає IP клієнта.
      * @return IP клієнта
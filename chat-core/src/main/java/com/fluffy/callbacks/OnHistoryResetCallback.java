@@ -0,0 +1,13 @@
+package com.fluffy.callbacks;
+
+/**
+ * Функціональний інтерфейс для реалізацій функцій зворотного виклику на подію
+ * скидання історії повідомлень клієнта сервером.
+ * @author Сивоконь Вадим
+ */
+public interface OnHistoryResetCallback {
+    /**
+     * Функція зворотного виклику.
+     */
+    void onHistoryReset();
+}
@@ -0,0 +1,16 @@
+package com.fluffy.callbacks;
+
+/**
+ * Функціональний інтерфейс для реалізацій функцій зворотного виклику на подію
+ * відповіді сервера на перехід клієнта до кімнати.
+ * @author Сивоконь Вадим
+ */
+public interface OnRoomChangedCallback {
+    /**
+     * Функція зворотного виклику.
+     * @param room назва кімнати, учасником якої є клієнт
+     * @param error причина, з якої перейти до кімнати не вдалося (null, якщо
+     *              перехід виконано)
+     */
+    void onRoomChanged(String room, String error);
+}
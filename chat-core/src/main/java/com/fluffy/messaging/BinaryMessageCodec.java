@@ -0,0 +1,324 @@
+package com.fluffy.messaging;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Реалізація компактного двійкового кодека повідомлень. Формат:
+ * flags: 2 байти, біт на кожне поле, яке присутнє в повідомленні
+ * type: порядковий номер значення Type (1 байт)
+ * status: вид статусу (1 байт: Status або NotificationStatus) та порядковий
+ * номер його значення (1 байт)
+ * dateTime: кількість мілісекунд від початку епохи (8 байтів, час
+ * зберігається без урахування часового поясу)
+ * name, content, ip, token: довжина (varint) та байти рядка у кодуванні UTF-8
+ * id: 8 байтів (лише якщо не 0)
+ * count: varint (лише якщо не 0)
+ * room, compression: довжина (varint) та байти рядка у кодуванні UTF-8
+ * @author Сивоконь Вадим
+ */
+public class BinaryMessageCodec implements MessageCodec {
+    /**
+     * Ознака наявності типу.
+     */
+    private static final int FLAG_TYPE = 1;
+
+    /**
+     * Ознака наявності статусу.
+     */
+    private static final int FLAG_STATUS = 1 << 1;
+
+    /**
+     * Ознака наявності часу надіслання.
+     */
+    private static final int FLAG_DATE_TIME = 1 << 2;
+
+    /**
+     * Ознака наявності імені.
+     */
+    private static final int FLAG_NAME = 1 << 3;
+
+    /**
+     * Ознака наявності тексту.
+     */
+    private static final int FLAG_CONTENT = 1 << 4;
+
+    /**
+     * Ознака наявності IP.
+     */
+    private static final int FLAG_IP = 1 << 5;
+
+    /**
+     * Ознака наявності сесійного токена.
+     */
+    private static final int FLAG_TOKEN = 1 << 6;
+
+    /**
+     * Ознака наявності номера повідомлення.
+     */
+    private static final int FLAG_ID = 1 << 7;
+
+    /**
+     * Ознака наявності кількості повідомлень.
+     */
+    private static final int FLAG_COUNT = 1 << 8;
+
+    /**
+     * Ознака наявності назви кімнати.
+     */
+    private static final int FLAG_ROOM = 1 << 9;
+
+    /**
+     * Ознака наявності алгоритму стиснення.
+     */
+    private static final int FLAG_COMPRESSION = 1 << 10;
+
+    /**
+     * Вид статусу: статус користувача.
+     */
+    private static final byte STATUS_KIND_USER = 1;
+
+    /**
+     * Вид статусу: статус службового повідомлення.
+     */
+    private static final byte STATUS_KIND_NOTIFICATION = 2;
+
+    /**
+     * Значення типів повідомлень за порядковими номерами.
+     */
+    private static final Message.Type[] TYPES = Message.Type.values();
+
+    /**
+     * Значення статусів користувача за порядковими номерами.
+     */
+    private static final Message.Status[] STATUSES = Message.Status.values();
+
+    /**
+     * Значення статусів службових повідомлень за порядковими номерами.
+     */
+    private static final Message.NotificationStatus[] NOTIFICATION_STATUSES = Message.NotificationStatus.values();
+
+    /**
+     * Конструктор об'єкта кодека.
+     */
+    public BinaryMessageCodec() {
+    }
+
+    private static int varIntSize(final int value) {
+        int size = 1;
+        int rest = value >>> 7;
+        while (rest != 0) {
+            ++size;
+            rest >>>= 7;
+        }
+        return size;
+    }
+
+    private static void putVarInt(final ByteBuffer buffer, final int value) {
+        int rest = value;
+        while ((rest & ~0x7F) != 0) {
+            buffer.put((byte) ((rest & 0x7F) | 0x80));
+            rest >>>= 7;
+        }
+        buffer.put((byte) rest);
+    }
+
+    private static int getVarInt(final ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Некоректне значення довжини");
+    }
+
+    private static byte[] utf8(final String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int stringSize(final byte[] bytes) {
+        return bytes == null ? 0 : varIntSize(bytes.length) + bytes.length;
+    }
+
+    private static void putString(final ByteBuffer buffer, final byte[] bytes) {
+        if (bytes != null) {
+            putVarInt(buffer, bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String getString(final ByteBuffer buffer) throws IOException {
+        int length = getVarInt(buffer);
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Некоректна довжина рядка: " + length);
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static <E> E byOrdinal(final E[] values, final int ordinal) throws IOException {
+        if (ordinal < 0 || ordinal >= values.length) {
+            throw new IOException("Некоректне значення перерахування: " + ordinal);
+        }
+        return values[ordinal];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] encode(final Message message) throws IOException {
+        Object status = message.getStatus();
+        if (status != null && !(status instanceof Message.Status) && !(status instanceof Message.NotificationStatus)) {
+            throw new IOException("Невідомий вид статусу: " + status.getClass().getName());
+        }
+
+        byte[] name = utf8(message.getName());
+        byte[] content = utf8(message.getContent());
+        byte[] ip = utf8(message.getIp());
+        byte[] token = utf8(message.getToken());
+        byte[] room = utf8(message.getRoom());
+        byte[] compression = utf8(message.getCompression());
+
+        int flags = 0;
+        int size = 2;
+        if (message.getType() != null) {
+            flags |= FLAG_TYPE;
+            size += 1;
+        }
+        if (status != null) {
+            flags |= FLAG_STATUS;
+            size += 2;
+        }
+        if (message.getDateTime() != null) {
+            flags |= FLAG_DATE_TIME;
+            size += 8;
+        }
+        if (name != null) {
+            flags |= FLAG_NAME;
+            size += stringSize(name);
+        }
+        if (content != null) {
+            flags |= FLAG_CONTENT;
+            size += stringSize(content);
+        }
+        if (ip != null) {
+            flags |= FLAG_IP;
+            size += stringSize(ip);
+        }
+        if (token != null) {
+            flags |= FLAG_TOKEN;
+            size += stringSize(token);
+        }
+        if (message.getId() != 0) {
+            flags |= FLAG_ID;
+            size += 8;
+        }
+        if (message.getCount() != 0) {
+            flags |= FLAG_COUNT;
+            size += varIntSize(message.getCount());
+        }
+        if (room != null) {
+            flags |= FLAG_ROOM;
+            size += stringSize(room);
+        }
+        if (compression != null) {
+            flags |= FLAG_COMPRESSION;
+            size += stringSize(compression);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putShort((short) flags);
+        if (message.getType() != null) {
+            buffer.put((byte) message.getType().ordinal());
+        }
+        if (status instanceof Message.Status) {
+            buffer.put(STATUS_KIND_USER);
+            buffer.put((byte) ((Message.Status) status).ordinal());
+        } else if (status != null) {
+            buffer.put(STATUS_KIND_NOTIFICATION);
+            buffer.put((byte) ((Message.NotificationStatus) status).ordinal());
+        }
+        if (message.getDateTime() != null) {
+            buffer.putLong(message.getDateTime().toInstant(ZoneOffset.UTC).toEpochMilli());
+        }
+        putString(buffer, name);
+        putString(buffer, content);
+        putString(buffer, ip);
+        putString(buffer, token);
+        if (message.getId() != 0) {
+            buffer.putLong(message.getId());
+        }
+        if (message.getCount() != 0) {
+            putVarInt(buffer, message.getCount());
+        }
+        putString(buffer, room);
+        putString(buffer, compression);
+        return buffer.array();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Message decode(final byte[] bytes, final int offset, final int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+        Message message = new Message();
+        try {
+            int flags = buffer.getShort() & 0xFFFF;
+            if ((flags & FLAG_TYPE) != 0) {
+                message.setType(byOrdinal(TYPES, buffer.get()));
+            }
+            if ((flags & FLAG_STATUS) != 0) {
+                byte kind = buffer.get();
+                byte ordinal = buffer.get();
+                if (kind == STATUS_KIND_USER) {
+                    message.setStatus(byOrdinal(STATUSES, ordinal));
+                } else if (kind == STATUS_KIND_NOTIFICATION) {
+                    message.setStatus(byOrdinal(NOTIFICATION_STATUSES, ordinal));
+                } else {
+                    throw new IOException("Невідомий вид статусу: " + kind);
+                }
+            }
+            if ((flags & FLAG_DATE_TIME) != 0) {
+                message.setDateTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(buffer.getLong()), ZoneOffset.UTC));
+            }
+            if ((flags & FLAG_NAME) != 0) {
+                message.setName(getString(buffer));
+            }
+            if ((flags & FLAG_CONTENT) != 0) {
+                message.setContent(getString(buffer));
+            }
+            if ((flags & FLAG_IP) != 0) {
+                message.setIp(getString(buffer));
+            }
+            if ((flags & FLAG_TOKEN) != 0) {
+                message.setToken(getString(buffer));
+            }
+            if ((flags & FLAG_ID) != 0) {
+                message.setId(buffer.getLong());
+            }
+            if ((flags & FLAG_COUNT) != 0) {
+                message.setCount(getVarInt(buffer));
+            }
+            if ((flags & FLAG_ROOM) != 0) {
+                message.setRoom(getString(buffer));
+            }
+            if ((flags & FLAG_COMPRESSION) != 0) {
+                message.setCompression(getString(buffer));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Повідомлення обрізане", e);
+        }
+        return MessageCodecs.checkDecoded(message);
+    }
+}
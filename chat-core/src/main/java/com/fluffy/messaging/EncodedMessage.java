@@ -0,0 +1,94 @@
+package com.fluffy.messaging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+/**
+ * Клас незмінного закодованого повідомлення. Дозволяє закодувати
+ * повідомлення один раз та надіслати ті самі байти будь-якій кількості
+ * отримувачів.
+ * @author Сивоконь Вадим
+ */
+public final class EncodedMessage {
+    /**
+     * Ознака того, що стиснення не зменшує розмір вмісту.
+     */
+    private static final byte[] NOT_COMPRESSIBLE = new byte[0];
+
+    /**
+     * Вихідне повідомлення.
+     */
+    private final Message message;
+
+    /**
+     * Закодований вміст повідомлення (не змінюється після створення).
+     */
+    private final byte[] payload;
+
+    /**
+     * Стиснений кадр із вмістом повідомлення (створюється під час першого
+     * запиту та використовується для всіх отримувачів).
+     */
+    private volatile byte[] compressed;
+
+    private EncodedMessage(final Message message, final byte[] payload) {
+        this.message = message;
+        this.payload = payload;
+    }
+
+    /**
+     * Кодує повідомлення вказаним кодеком.
+     * @param message повідомлення
+     * @param codec кодек
+     * @return закодоване повідомлення
+     * @throws IOException якщо повідомлення не вдалося закодувати
+     */
+    public static EncodedMessage encode(final Message message, final MessageCodec codec) throws IOException {
+        return new EncodedMessage(message, codec.encode(message));
+    }
+
+    /**
+     * Повертає вихідне повідомлення.
+     * @return повідомлення
+     */
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Повертає розмір закодованого вмісту.
+     * @return розмір у байтах
+     */
+    public int size() {
+        return payload.length;
+    }
+
+    /**
+     * Повертає нове представлення закодованого вмісту лише для читання. Кожен
+     * отримувач повинен використовувати власне представлення, оскільки запис
+     * змінює його позицію.
+     * @return буфер із закодованим вмістом
+     */
+    public ByteBuffer payload() {
+        return ByteBuffer.wrap(payload).asReadOnlyBuffer();
+    }
+
+    /**
+     * Повертає нове представлення стисненого кадру із вмістом повідомлення
+     * лише для читання. Вміст стискається один раз.
+     * @return буфер зі стисненим кадром або null, якщо стиснення не зменшує
+     *         розмір
+     */
+    public ByteBuffer compressedPayload() {
+        byte[] result = compressed;
+        if (result == null) {
+            result = FrameCompression.compress(Collections.singletonList(ByteBuffer.wrap(payload)));
+            if (result == null) {
+                result = NOT_COMPRESSIBLE;
+            }
+            compressed = result;
+        }
+        return result == NOT_COMPRESSIBLE ? null : ByteBuffer.wrap(result).asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,153 @@
+package com.fluffy.messaging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Допоміжний клас для стиснення вмісту кадрів. Стиснений кадр починається з
+ * байта-ознаки {@link #MARKER}, з якого не починається вміст жодного кодека,
+ * після нього йдуть стиснені алгоритмом deflate кадри (довжина та вміст) -
+ * одне повідомлення або кілька, наприклад сторінка історії.
+ * @author Сивоконь Вадим
+ */
+public final class FrameCompression {
+    /**
+     * Назва алгоритму стиснення, що узгоджується під час авторизації.
+     */
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * Ознака стисненого кадру (перший байт двійкового кодека - старший байт
+     * ознак полів, кодека серіалізації - 0xAC).
+     */
+    public static final byte MARKER = (byte) 0xFF;
+
+    /**
+     * Максимальний розмір розпакованих кадрів.
+     */
+    public static final int MAX_UNCOMPRESSED_SIZE = Frames.MAX_PAYLOAD_SIZE + Frames.HEADER_SIZE;
+
+    /**
+     * Рівень стиснення (швидкість важливіша за ступінь стиснення).
+     */
+    private static final int LEVEL = Deflater.BEST_SPEED;
+
+    /**
+     * Компресор для кожного потоку (створення нового обходиться дорожче за
+     * саме стиснення невеликого кадру).
+     */
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(LEVEL, true));
+
+    /**
+     * Декомпресор для кожного потоку.
+     */
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private FrameCompression() { }
+
+    /**
+     * Стискає вміст кількох кадрів в один кадр. Позиції буферів не
+     * змінюються.
+     * @param payloads вміст кадрів (загальний розмір разом із заголовками -
+     *                 не більше за {@link #MAX_UNCOMPRESSED_SIZE})
+     * @return вміст стисненого кадру або null, якщо стиснення не зменшує
+     *         розмір
+     */
+    public static byte[] compress(final List<ByteBuffer> payloads) {
+        int size = 0;
+        for (ByteBuffer payload : payloads) {
+            size += Frames.HEADER_SIZE + payload.remaining();
+        }
+        if (size > MAX_UNCOMPRESSED_SIZE) {
+            throw new IllegalArgumentException("Завеликий розмір кадрів для стиснення: " + size);
+        }
+        ByteBuffer frames = ByteBuffer.allocate(size);
+        for (ByteBuffer payload : payloads) {
+            frames.putInt(payload.remaining());
+            frames.put(payload.duplicate());
+        }
+
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(frames.array(), 0, size);
+        deflater.finish();
+        // стиснений кадр, не менший за вихідні, не має сенсу
+        byte[] output = new byte[size];
+        output[0] = MARKER;
+        int length = 1;
+        while (!deflater.finished() && length < output.length) {
+            length += deflater.deflate(output, length, output.length - length);
+        }
+        if (!deflater.finished() || length >= size) {
+            return null;
+        }
+        byte[] result = new byte[length];
+        System.arraycopy(output, 0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * Повертає логічне значення - чи є кадр стисненим.
+     * @param bytes масив із вмістом кадру
+     * @param offset початок вмісту
+     * @param length довжина вмісту
+     * @return чи є кадр стисненим
+     */
+    public static boolean isCompressed(final byte[] bytes, final int offset, final int length) {
+        return length > 0 && bytes[offset] == MARKER;
+    }
+
+    /**
+     * Розпаковує стиснений кадр.
+     * @param bytes масив із вмістом кадру
+     * @param offset початок вмісту
+     * @param length довжина вмісту
+     * @return вміст кадрів, що були стиснені
+     * @throws IOException якщо дані пошкоджені або розпакований розмір
+     *         перевищує обмеження
+     */
+    public static List<byte[]> decompress(final byte[] bytes, final int offset, final int length) throws IOException {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(bytes, offset + 1, length - 1);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(Math.min(length * 4, MAX_UNCOMPRESSED_SIZE));
+        byte[] chunk = new byte[8192];
+        try {
+            while (!inflater.finished()) {
+                int count = inflater.inflate(chunk);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Стиснений кадр обірваний");
+                }
+                if (output.size() + count > MAX_UNCOMPRESSED_SIZE) {
+                    throw new IOException("Завеликий розмір розпакованого кадру");
+                }
+                output.write(chunk, 0, count);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Пошкоджений стиснений кадр", e);
+        }
+
+        ByteBuffer frames = ByteBuffer.wrap(output.toByteArray());
+        List<byte[]> payloads = new ArrayList<>();
+        while (frames.hasRemaining()) {
+            if (frames.remaining() < Frames.HEADER_SIZE) {
+                throw new IOException("Пошкоджений стиснений кадр");
+            }
+            int payloadLength = frames.getInt();
+            Frames.checkLength(payloadLength);
+            if (frames.remaining() < payloadLength) {
+                throw new IOException("Пошкоджений стиснений кадр");
+            }
+            byte[] payload = new byte[payloadLength];
+            frames.get(payload);
+            payloads.add(payload);
+        }
+        return payloads;
+    }
+}
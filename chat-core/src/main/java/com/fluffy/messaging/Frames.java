@@ -0,0 +1,110 @@
+package com.fluffy.messaging;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Допоміжний клас для роботи з кадрами протоколу. Кожен кадр складається з
+ * довжини (4 байти) та вмісту - закодованого повідомлення.
+ * @author Сивоконь Вадим
+ */
+public final class Frames {
+    /**
+     * Розмір заголовку кадру (довжини вмісту).
+     */
+    public static final int HEADER_SIZE = 4;
+
+    /**
+     * Максимальний розмір вмісту кадру.
+     */
+    public static final int MAX_PAYLOAD_SIZE = 1 << 20;
+
+    private Frames() { }
+
+    /**
+     * Перевіряє довжину вмісту кадру.
+     * @param length довжина вмісту
+     * @throws IOException якщо довжина не відповідає обмеженням
+     */
+    public static void checkLength(final int length) throws IOException {
+        if (length < 0 || length > MAX_PAYLOAD_SIZE) {
+            throw new IOException("Некоректна довжина кадру: " + length);
+        }
+    }
+
+    /**
+     * Записує кадр у потік та виштовхує його.
+     * @param dataOutputStream потік
+     * @param payload вміст кадру
+     * @throws IOException якщо сталася помилка під час запису
+     */
+    public static void write(final DataOutputStream dataOutputStream, final byte[] payload) throws IOException {
+        dataOutputStream.writeInt(payload.length);
+        dataOutputStream.write(payload);
+        dataOutputStream.flush();
+    }
+
+    /**
+     * Записує кадр у потік та виштовхує його. Позиція буфера вмісту
+     * переміщується в його кінець.
+     * @param dataOutputStream потік
+     * @param payload вміст кадру
+     * @throws IOException якщо сталася помилка під час запису
+     */
+    public static void write(final DataOutputStream dataOutputStream, final ByteBuffer payload) throws IOException {
+        append(dataOutputStream, payload);
+        dataOutputStream.flush();
+    }
+
+    /**
+     * Записує кадр у буферизований потік без виштовхування, що дозволяє
+     * надіслати кілька кадрів одним записом у сокет. Позиція буфера вмісту
+     * переміщується в його кінець.
+     * @param dataOutputStream потік
+     * @param payload вміст кадру
+     * @return кількість записаних байтів (разом із заголовком)
+     * @throws IOException якщо сталася помилка під час запису
+     */
+    public static int append(final DataOutputStream dataOutputStream, final ByteBuffer payload) throws IOException {
+        int length = payload.remaining();
+        dataOutputStream.writeInt(length);
+        if (payload.hasArray()) {
+            dataOutputStream.write(payload.array(), payload.arrayOffset() + payload.position(), length);
+            payload.position(payload.limit());
+        } else {
+            byte[] bytes = new byte[length];
+            payload.get(bytes);
+            dataOutputStream.write(bytes);
+        }
+        return HEADER_SIZE + length;
+    }
+
+    /**
+     * Читає наступний кадр із потоку, блокуючись до його повного отримання.
+     * @param dataInputStream потік
+     * @return вміст кадру
+     * @throws IOException якщо сталася помилка під час читання або потік
+     *         завершився
+     */
+    public static byte[] read(final DataInputStream dataInputStream) throws IOException {
+        int length = dataInputStream.readInt();
+        checkLength(length);
+        byte[] payload = new byte[length];
+        dataInputStream.readFully(payload);
+        return payload;
+    }
+
+    /**
+     * Створює буфер із заголовком кадру, готовий до запису в канал.
+     * @param length довжина вмісту кадру
+     * @return буфер заголовку
+     */
+    public static ByteBuffer header(final int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        buffer.putInt(length);
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -13,6 +13,18 @@ import java.time.LocalDateTime;
  * dateTime: час надіслання (type = TEXT)
  * status: значення зі Status (type = TEXT) або значення із NotificationStatus
  * (type = NOTIFICATION)
+ * token: сесійний токен (status = AUTH або SESSION)
+ * id: номер повідомлення в історії, що призначається сервером (type = TEXT),
+ * номер останнього отриманого клієнтом повідомлення (status = AUTH) або
+ * номер, до якого (status = HISTORY) чи після якого (status = SYNC)
+ * запитуються повідомлення
+ * count: кількість запитаних або надісланих повідомлень (status = HISTORY
+ * або SYNC)
+ * room: назва кімнати, до якої належить повідомлення (type = TEXT), до якої
+ * приєднується клієнт (status = AUTH або JOIN) або до якої його приєднано
+ * (status = JOIN, повідомлення сервера)
+ * compression: алгоритм стиснення кадрів, який підтримує клієнт (status =
+ * AUTH) або який дозволив сервер (status = SESSION)
  * @author Сивоконь Вадим
  */
 public class Message implements Serializable {
@@ -47,12 +59,55 @@ public class Message implements Serializable {
      */
     private Object status;
 
+    /**
+     * Сесійний токен для повторної авторизації без пароля.
+     */
+    private String token;
+
+    /**
+     * Номер повідомлення в історії (0, якщо не призначений).
+     */
+    private long id;
+
+    /**
+     * Кількість повідомлень сторінки історії.
+     */
+    private int count;
+
+    /**
+     * Назва кімнати.
+     */
+    private String room;
+
+    /**
+     * Алгоритм стиснення кадрів.
+     */
+    private String compression;
+
     /**
      * Конструктор об'єкта повідомлення.
      */
     public Message() {
     }
 
+    /**
+     * Конструктор копії повідомлення.
+     * @param other повідомлення, що копіюється
+     */
+    public Message(final Message other) {
+        this.type = other.type;
+        this.name = other.name;
+        this.content = other.content;
+        this.ip = other.ip;
+        this.dateTime = other.dateTime;
+        this.status = other.status;
+        this.token = other.token;
+        this.id = other.id;
+        this.count = other.count;
+        this.room = other.room;
+        this.compression = other.compression;
+    }
+
     /**
      * Можливі типи повідомлень.
      */
@@ -138,6 +193,45 @@ public class Message implements Serializable {
          * Статус повідомлення, що несе в собі дані авторизації.
          */
         AUTH,
+
+        /**
+         * Статус повідомлення, що несе сесійний токен після успішної
+         * авторизації (повідомлення надсилається клієнту).
+         */
+        SESSION,
+
+        /**
+         * Статус запиту сторінки історії: до повідомлення з номером id
+         * (0 - до найновішого) не більше count повідомлень. Сервер надсилає
+         * повідомлення сторінки, а після них - повідомлення з цим самим
+         * статусом, у якому count - кількість надісланих повідомлень.
+         */
+        HISTORY,
+
+        /**
+         * Статус запиту пропущених повідомлень: після повідомлення з номером
+         * id не більше count повідомлень. Сервер надсилає повідомлення, а
+         * після них - повідомлення з цим самим статусом, у якому id - номер
+         * останнього надісланого повідомлення, а count - кількість надісланих
+         * повідомлень (0 - пропущених повідомлень більше немає).
+         */
+        SYNC,
+
+        /**
+         * Статус скидання історії: пропущених клієнтом повідомлень на сервері
+         * вже немає, тому історія клієнта застаріла, а наступні повідомлення
+         * є новим знімком історії (повідомлення надсилається клієнту).
+         */
+        RESET,
+
+        /**
+         * Статус переходу до кімнати room: клієнт запитує перехід (id - номер
+         * останнього отриманого в цій кімнаті повідомлення), а сервер
+         * підтверджує його назвою кімнати, до якої приєднано клієнта, після
+         * чого надсилає історію кімнати. Якщо перехід неможливий, сервер
+         * надсилає назву поточної кімнати та причину в content.
+         */
+        JOIN,
     }
 
     /**
@@ -235,4 +329,84 @@ public class Message implements Serializable {
     public void setStatus(final Object status) {
         this.status = status;
     }
+
+    /**
+     * Повертає сесійний токен.
+     * @return сесійний токен
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Встановлює сесійний токен.
+     * @param token сесійний токен
+     */
+    public void setToken(final String token) {
+        this.token = token;
+    }
+
+    /**
+     * Повертає номер повідомлення в історії.
+     * @return номер повідомлення (0, якщо не призначений)
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Встановлює номер повідомлення в історії.
+     * @param id номер повідомлення
+     */
+    public void setId(final long id) {
+        this.id = id;
+    }
+
+    /**
+     * Повертає кількість повідомлень сторінки історії.
+     * @return кількість повідомлень
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Встановлює кількість повідомлень сторінки історії.
+     * @param count кількість повідомлень
+     */
+    public void setCount(final int count) {
+        this.count = count;
+    }
+
+    /**
+     * Повертає назву кімнати.
+     * @return назва кімнати
+     */
+    public String getRoom() {
+        return room;
+    }
+
+    /**
+     * Встановлює назву кімнати.
+     * @param room назва кімнати
+     */
+    public void setRoom(final String room) {
+        this.room = room;
+    }
+
+    /**
+     * Повертає алгоритм стиснення кадрів.
+     * @return назва алгоритму або null
+     */
+    public String getCompression() {
+        return compression;
+    }
+
+    /**
+     * Встановлює алгоритм стиснення кадрів.
+     * @param compression назва алгоритму
+     */
+    public void setCompression(final String compression) {
+        this.compression = compression;
+    }
 }
@@ -0,0 +1,28 @@
+package com.fluffy.messaging;
+
+import java.io.IOException;
+
+/**
+ * Інтерфейс кодека, що перетворює повідомлення у послідовність байтів для
+ * надсилання в межах одного кадру та навпаки.
+ * @author Сивоконь Вадим
+ */
+public interface MessageCodec {
+    /**
+     * Кодує повідомлення у послідовність байтів.
+     * @param message повідомлення
+     * @return закодоване повідомлення
+     * @throws IOException якщо повідомлення не вдалося закодувати
+     */
+    byte[] encode(Message message) throws IOException;
+
+    /**
+     * Декодує повідомлення з частини масиву байтів.
+     * @param bytes масив байтів
+     * @param offset зміщення початку повідомлення
+     * @param length довжина повідомлення
+     * @return декодоване повідомлення
+     * @throws IOException якщо повідомлення не вдалося декодувати
+     */
+    Message decode(byte[] bytes, int offset, int length) throws IOException;
+}
@@ -0,0 +1,57 @@
+package com.fluffy.messaging;
+
+import java.io.IOException;
+
+/**
+ * Допоміжний клас для обрання реалізації кодека повідомлень за назвою з
+ * налаштувань.
+ * @author Сивоконь Вадим
+ */
+public final class MessageCodecs {
+    /**
+     * Назва двійкового кодека.
+     */
+    public static final String BINARY = "binary";
+
+    /**
+     * Назва кодека на основі серіалізації Java.
+     */
+    public static final String SERIALIZATION = "serialization";
+
+    private MessageCodecs() { }
+
+    /**
+     * Створює кодек за його назвою.
+     * @param name назва кодека
+     * @return кодек повідомлень
+     */
+    public static MessageCodec byName(final String name) {
+        if (BINARY.equalsIgnoreCase(name)) {
+            return new BinaryMessageCodec();
+        } else if (SERIALIZATION.equalsIgnoreCase(name)) {
+            return new SerializationMessageCodec();
+        }
+        throw new IllegalArgumentException("Невідомий кодек повідомлень: " + name);
+    }
+
+    /**
+     * Перевіряє узгодженість декодованого повідомлення: тип обов'язковий,
+     * сповіщення має статус сповіщення, а звичайне повідомлення - статус
+     * користувача або не має статусу.
+     * @param message декодоване повідомлення (null - некоректне)
+     * @return те саме повідомлення
+     * @throws IOException якщо повідомлення неузгоджене
+     */
+    static Message checkDecoded(final Message message) throws IOException {
+        if (message == null || message.getType() == null) {
+            throw new IOException("Повідомлення без типу");
+        }
+        Object status = message.getStatus();
+        if (message.getType() == Message.Type.NOTIFICATION
+                ? !(status instanceof Message.NotificationStatus)
+                : status != null && !(status instanceof Message.Status)) {
+            throw new IOException("Статус не відповідає типу повідомлення: " + status);
+        }
+        return message;
+    }
+}
@@ -0,0 +1,45 @@
+package com.fluffy.messaging;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Реалізація кодека на основі стандартної серіалізації Java. Кожне
+ * повідомлення серіалізується окремим потоком об'єктів, тому кадри не
+ * залежать один від одного.
+ * @author Сивоконь Вадим
+ */
+public class SerializationMessageCodec implements MessageCodec {
+    /**
+     * Конструктор об'єкта кодека.
+     */
+    public SerializationMessageCodec() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] encode(final Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(bytes)) {
+            objectOutputStream.writeObject(message);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Message decode(final byte[] bytes, final int offset, final int length) throws IOException {
+        try (ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(bytes, offset, length))) {
+            return MessageCodecs.checkDecoded((Message) objectInputStream.readObject());
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Не вдалося декодувати повідомлення", e);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.fluffy.util;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Потокобезпечний кільцевий буфер фіксованої місткості на основі масиву,
+ * що зберігає останні додані елементи: новий елемент заміщує найстаріший.
+ * Додавання виконується без блокувань - кожен елемент отримує номер, що
+ * визначає його комірку, а запис у комірку виконується атомарно разом із
+ * номером. Ітерація виконується за знімком: елементи повертаються в порядку
+ * додавання без пропусків, а елементи, які ще записуються, до знімка не
+ * потрапляють.
+ * @param <E> тип елемента буфера
+ * @author Сивоконь Вадим
+ */
+public class ConcurrentRingBuffer<E> extends AbstractCollection<E> {
+    /**
+     * Комірки буфера.
+     */
+    private final AtomicReferenceArray<Slot<E>> slots;
+
+    /**
+     * Номер наступного елемента.
+     */
+    private final AtomicLong tail;
+
+    /**
+     * Конструктор об'єкта буфера.
+     * @param capacity місткість
+     */
+    public ConcurrentRingBuffer(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity <= 0");
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.tail = new AtomicLong();
+    }
+
+    /**
+     * Додає елемент до буфера, заміщуючи найстаріший, якщо буфер заповнений.
+     * @param e елемент
+     * @return true
+     */
+    @Override
+    public boolean add(final E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long seq = tail.getAndIncrement();
+        int index = (int) (seq % slots.length());
+        Slot<E> slot = new Slot<>(seq, e);
+        Slot<E> current;
+        do {
+            current = slots.get(index);
+            if (current != null && current.seq > seq) {
+                // комірку вже зайняв новіший елемент - цей елемент застарів
+                return true;
+            }
+        } while (!slots.compareAndSet(index, current, slot));
+        return true;
+    }
+
+    /**
+     * Повертає знімок вмісту буфера.
+     * @return незмінний список елементів у порядку додавання
+     */
+    public List<E> snapshot() {
+        long end = tail.get();
+        long start = Math.max(0, end - slots.length());
+        List<E> result = new ArrayList<>((int) (end - start));
+        for (long seq = start; seq < end; ++seq) {
+            Slot<E> slot = slots.get((int) (seq % slots.length()));
+            if (slot == null || slot.seq < seq) {
+                // елемент ще записується - новіші елементи не повертаються
+                break;
+            }
+            if (slot.seq == seq) {
+                result.add(slot.element);
+            }
+            // інакше елемент уже заміщений новішим
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Повертає ітератор за знімком вмісту буфера.
+     * @return ітератор
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return snapshot().iterator();
+    }
+
+    /**
+     * Повертає кількість елементів у буфері.
+     * @return кількість елементів
+     */
+    @Override
+    public int size() {
+        return (int) Math.min(tail.get(), slots.length());
+    }
+
+    /**
+     * Повертає місткість буфера.
+     * @return місткість
+     */
+    public int capacity() {
+        return slots.length();
+    }
+
+    /**
+     * Клас комірки буфера.
+     * @param <E> тип елемента
+     */
+    private static final class Slot<E> {
+        /**
+         * Номер елемента.
+         */
+        private final long seq;
+
+        /**
+         * Елемент.
+         */
+        private final E element;
+
+        private Slot(final long seq, final E element) {
+            this.seq = seq;
+            this.element = element;
+        }
+    }
+}
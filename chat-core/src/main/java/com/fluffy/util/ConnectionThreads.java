@@ -0,0 +1,68 @@
+package com.fluffy.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Допоміжний клас, що створює фабрики потоків для циклів обслуговування
+ * з'єднань. Окрім звичайних (платформних) потоків, підтримує віртуальні
+ * потоки (Java 21+): блокуюче читання з сокета звільняє потік-носій, тому
+ * кожне з'єднання займає кілька кілобайтів замість повного стека потоку.
+ * Віртуальні потоки отримуються через рефлексію, тому код залишається
+ * сумісним із Java 8; якщо JVM їх не підтримує, використовуються платформні.
+ * @author Сивоконь Вадим
+ */
+public final class ConnectionThreads {
+    private ConnectionThreads() { }
+
+    /**
+     * Режим платформних потоків.
+     */
+    public static final String PLATFORM = "platform";
+
+    /**
+     * Режим віртуальних потоків.
+     */
+    public static final String VIRTUAL = "virtual";
+
+    /**
+     * Фабрика віртуальних потоків або null, якщо JVM їх не підтримує.
+     */
+    private static final ThreadFactory VIRTUAL_FACTORY = createVirtualFactory();
+
+    private static ThreadFactory createVirtualFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // JVM до 21 версії - віртуальних потоків немає
+            return null;
+        }
+    }
+
+    /**
+     * Повертає фабрику потоків для указаного режиму.
+     * @param mode режим: platform або virtual (null - platform)
+     * @return фабрика потоків; для режиму virtual на JVM без віртуальних
+     *         потоків - фабрика платформних потоків
+     * @throws IllegalArgumentException якщо режим невідомий
+     */
+    public static ThreadFactory forMode(final String mode) {
+        if (mode == null || PLATFORM.equalsIgnoreCase(mode)) {
+            return Thread::new;
+        }
+        if (VIRTUAL.equalsIgnoreCase(mode)) {
+            return VIRTUAL_FACTORY != null ? VIRTUAL_FACTORY : Thread::new;
+        }
+        throw new IllegalArgumentException("Невідомий режим потоків: " + mode);
+    }
+
+    /**
+     * Повертає, чи підтримує поточна JVM віртуальні потоки.
+     * @return чи підтримуються віртуальні потоки
+     */
+    public static boolean isVirtualSupported() {
+        return VIRTUAL_FACTORY != null;
+    }
+}
@@ -2,6 +2,7 @@ package com.fluffy.server;
 
 import com.fluffy.server.daos.impls.FirebirdUserDAO;
 import com.fluffy.server.services.ServerService;
+import com.fluffy.server.services.impls.CachingUserService;
 import com.fluffy.server.services.impls.UserServiceImpl;
 import com.fluffy.server.util.DataSource;
 import com.fluffy.util.ApplicationContext;
@@ -72,7 +73,12 @@ public final class ServerApplication extends Application {
                 Environment.getProperty("data-source.connection-url"),
                 Environment.getProperty("data-source.user"),
                 Environment.getProperty("data-source.password"),
-                Environment.getProperty("data-source.driver-class")
+                Environment.getProperty("data-source.driver-class"),
+                Integer.parseInt(Environment.getProperty("data-source.pool.max-size")),
+                Long.parseLong(Environment.getProperty("data-source.pool.max-wait")),
+                Long.parseLong(Environment.getProperty("data-source.pool.idle-timeout")),
+                Long.parseLong(Environment.getProperty("data-source.pool.validation-timeout")),
+                Long.parseLong(Environment.getProperty("data-source.pool.leak-detection-threshold"))
         );
         ApplicationContext.registerObject("dataSource", dataSource);
 
@@ -81,7 +87,11 @@ public final class ServerApplication extends Application {
 
         // сервіси
         ApplicationContext.registerObject("serverService", new ServerService());
-        ApplicationContext.registerObject("userService", new UserServiceImpl());
+        ApplicationContext.registerObject("userService", new CachingUserService(
+                new UserServiceImpl(),
+                Long.parseLong(Environment.getProperty("user-service.cache.ttl")),
+                Integer.parseInt(Environment.getProperty("user-service.cache.max-size"))
+        ));
 
         // вікна
         ApplicationContext.registerObject("primaryStage", primaryStage);
@@ -103,4 +113,15 @@ public final class ServerApplication extends Application {
         configureModalStage(updateUserStage, primaryStage, "UpdateUser", "Оновлення користувача");
         configureModalStage(deleteUserStage, primaryStage, "DeleteUser", "Видалення користувача");
     }
+
+    /**
+     * Звільняє ресурси додатку під час його завершення.
+     */
+    @Override
+    public void stop() {
+        DataSource dataSource = (DataSource) ApplicationContext.lookup("dataSource");
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
 }
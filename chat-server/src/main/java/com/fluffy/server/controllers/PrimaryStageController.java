@@ -425,7 +425,8 @@ public class PrimaryStageController extends AbstractStageController {
                 userService.update(newUser, user.getId());
 
                 if (serverService.isServerActive()) {
-                    serverService.disconnectClientByName(newUser.getName());
+                    // відключаємо всі сесії під старим іменем користувача
+                    serverService.disconnectClientByName(user.getName());
                 }
             } catch (DBConnectionException e) {
                 AlertUtil.show(Alert.AlertType.ERROR, "Помилка", "Помилка", e.getMessage());
@@ -1,34 +1,61 @@
 package com.fluffy.server.models;
 
 import com.fluffy.callbacks.OnMessageReceivedCallback;
+import com.fluffy.messaging.EncodedMessage;
+import com.fluffy.messaging.FrameCompression;
+import com.fluffy.messaging.Frames;
 import com.fluffy.messaging.Message;
-import com.fluffy.server.exceptions.DBConnectionException;
-import com.fluffy.server.exceptions.PersistException;
-import com.fluffy.server.services.UserService;
-import com.fluffy.util.ApplicationContext;
+import com.fluffy.server.network.ClientConnection;
+import com.fluffy.server.services.AuthService;
+import com.fluffy.server.services.MessageRateLimiter;
+import com.fluffy.server.util.HashedWheelTimer;
+import com.fluffy.server.util.Metrics;
+import com.fluffy.server.util.TokenBucket;
 import com.fluffy.util.Environment;
-import org.mindrot.jbcrypt.BCrypt;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Клас обробника підключення клієнта до сервера.
  * @author Сивоконь Вадим
  */
-public class ClientHandler implements Runnable {
+public class ClientHandler {
     /**
-     * Період читання повідомлень, що надходять.
+     * Максимальна кількість повідомлень, отриманих під час авторизації, які
+     * зберігаються до її завершення.
      */
-    private static final int READ_PERIOD = Integer.parseInt(Environment.getProperty("server.client-handler.read-period"));
+    private static final int MAX_PENDING_MESSAGES = 16;
 
     /**
-     * Сокет клієнта.
+     * Чи дозволене стиснення кадрів для клієнтів, що його підтримують.
      */
-    private final Socket clientSocket;
+    private static final boolean COMPRESSION_ENABLED =
+            FrameCompression.DEFLATE.equalsIgnoreCase(Environment.getProperty("server.compression"));
+
+    /**
+     * Мінімальний розмір (у байтах) вмісту, що стискається; короткі
+     * повідомлення надсилаються без стиснення.
+     */
+    private static final int COMPRESSION_THRESHOLD = Integer.parseInt(Environment.getProperty("server.compression.threshold"));
+
+    /**
+     * Кількість повідомлень і запитів, відкинутих поспіль через перевищення
+     * частоти з'єднання або користувача, після якої клієнт відключається.
+     */
+    private static final int RATE_LIMIT_MAX_DROPPED = Integer.parseInt(Environment.getProperty("server.rate-limit.max-dropped"));
+
+    /**
+     * З'єднання із клієнтом.
+     */
+    private final ClientConnection connection;
 
     /**
      * Сервер.
@@ -36,149 +63,568 @@ public class ClientHandler implements Runnable {
     private final Server server;
 
     /**
-     * Сервіс для отримання даних про користувачів.
+     * Ім'я користувача.
      */
-    private final UserService userService;
+    private volatile String name;
 
     /**
-     * Ім'я користувача.
+     * Чи пройшов клієнт авторизацію.
+     */
+    private volatile boolean authenticated;
+
+    /**
+     * Чи був уже отриманий запит на авторизацію.
+     */
+    private volatile boolean authRequested;
+
+    /**
+     * Номер останнього повідомлення, отриманого клієнтом під час
+     * попереднього підключення (0, якщо клієнт підключається вперше).
+     */
+    private volatile long lastSeenMessageId;
+
+    /**
+     * Назва кімнати, до якої клієнт просив приєднати його під час
+     * авторизації.
+     */
+    private volatile String requestedRoom;
+
+    /**
+     * Кімната, учасником якої є клієнт (null до завершення авторизації).
      */
-    private String name;
+    private volatile Room room;
 
     /**
-     * Потік об'єктів для отримання повідомлень від клієнта.
+     * Чи запропонував клієнт стиснення, яке дозволене сервером (до
+     * завершення авторизації стиснення ще не узгоджене).
      */
-    private final ObjectInputStream objectInputStream;
+    private volatile boolean compressionRequested;
 
     /**
-     * Потік об'єктів для надіслання повідомлень клієнту.
+     * Чи приймаються від клієнта стиснені кадри (стиснення узгоджене).
      */
-    private final ObjectOutputStream objectOutputStream;
+    private volatile boolean inboundCompression;
+
+    /**
+     * Чи стискаються кадри, що надсилаються клієнту. Вмикається лише після
+     * повідомлення із сесійним токеном, яким клієнт дізнається про
+     * стиснення, тому пропущені повідомлення та історія при приєднанні
+     * надсилаються без стиснення.
+     */
+    private volatile boolean compression;
+
+    /**
+     * Відро токенів з'єднання для обмеження частоти текстових повідомлень і
+     * запитів приєднання та історії.
+     */
+    private final TokenBucket rateLimitBucket;
+
+    /**
+     * Кількість повідомлень і запитів, відкинутих поспіль.
+     */
+    private final AtomicInteger droppedInRow;
+
+    /**
+     * Звичайні повідомлення, отримані під час авторизації (доступ - під
+     * блокуванням {@link #pendingLock}).
+     */
+    private final List<Message> pendingMessages;
+
+    /**
+     * Блокування повідомлень, отриманих під час авторизації. Їх розсилка
+     * може очікувати, тому монітор, що закріпив би віртуальний потік за
+     * потоком-носієм, не використовується.
+     */
+    private final ReentrantLock pendingLock;
 
     /**
      * Обробник отримання звичайного повідомлення.
      */
     private final OnMessageReceivedCallback onMessageReceivedCallback;
 
+    /**
+     * Чи було закрите з'єднання.
+     */
+    private final AtomicBoolean closed;
+
+    /**
+     * Час останньої активності (вхідних або вихідних повідомлень, у
+     * наносекундах).
+     */
+    private volatile long lastActivityTime;
+
+    /**
+     * Час отримання останнього повідомлення від клієнта (у наносекундах).
+     */
+    private volatile long lastReceiveTime;
+
+    /**
+     * Час надіслання перевірочного повідомлення, на яке очікується відповідь
+     * (у наносекундах), або 0. Змінюється лише потоком таймера.
+     */
+    private long pingSendTime;
+
+    /**
+     * Заплановане завдання перевірки активності.
+     */
+    private volatile HashedWheelTimer.Timeout keepAliveTimeout;
+
     /**
      * Конструктор обробника підключення до сервера.
-     * @param clientSocket сокет клієнта
+     * @param connection з'єднання із клієнтом
      * @param server сервер
      * @param onMessageReceivedCallback обробник отримання звичайного повідомлення
-     * @throws IOException якщо сталася помилка під час роботи із I/O-потоками
      */
-    public ClientHandler(final Socket clientSocket,
+    public ClientHandler(final ClientConnection connection,
                          final Server server,
-                         final OnMessageReceivedCallback onMessageReceivedCallback) throws IOException {
-        this.clientSocket = clientSocket;
+                         final OnMessageReceivedCallback onMessageReceivedCallback) {
+        this.connection = connection;
         this.server = server;
+        this.onMessageReceivedCallback = onMessageReceivedCallback;
+        this.closed = new AtomicBoolean();
+        this.pendingMessages = new ArrayList<>();
+        this.pendingLock = new ReentrantLock();
+        this.rateLimitBucket = server.getRateLimiter().newSessionBucket();
+        this.droppedInRow = new AtomicInteger();
+        this.lastActivityTime = System.nanoTime();
+        this.lastReceiveTime = lastActivityTime;
+    }
 
-        this.userService = (UserService) ApplicationContext.lookup("userService");
+    /**
+     * Починає отримання повідомлень від клієнта.
+     * @throws IOException якщо не вдалося почати роботу із з'єднанням
+     */
+    public void start() throws IOException {
+        connection.open(this);
+    }
 
-        // обов'язково: спочатку output, потім - input
-        this.objectOutputStream = new ObjectOutputStream(clientSocket.getOutputStream());
-        this.objectInputStream = new ObjectInputStream(clientSocket.getInputStream());
+    /**
+     * Надсилає повідомлення клієнту.
+     * @param message повідомлення
+     * @throws IOException якщо сталася помилка під час надіслання
+     */
+    public void sendMessage(final Message message) throws IOException {
+        sendMessage(ByteBuffer.wrap(server.getCodec().encode(message)));
+    }
 
-        this.onMessageReceivedCallback = onMessageReceivedCallback;
+    /**
+     * Надсилає клієнту вже закодоване повідомлення без повторного кодування.
+     * @param message закодоване повідомлення
+     * @throws IOException якщо сталася помилка під час надіслання
+     */
+    public void sendMessage(final EncodedMessage message) throws IOException {
+        ByteBuffer compressed = compression && message.size() >= COMPRESSION_THRESHOLD ? message.compressedPayload() : null;
+        if (compressed != null) {
+            recordCompression(message.size(), compressed.remaining());
+            connection.write(compressed);
+        } else {
+            connection.write(message.payload());
+        }
+        lastActivityTime = System.nanoTime();
     }
 
     /**
-     * Синхронізоване надіслання повідомлення клієнту.
-     * @param message повідомлення
+     * Надсилає клієнту закодований вміст повідомлення (наприклад, прочитаний
+     * з журналу).
+     * @param payload закодований вміст повідомлення
      * @throws IOException якщо сталася помилка під час надіслання
      */
-    public synchronized void sendMessage(final Message message) throws IOException {
-        objectOutputStream.writeObject(message);
-        objectOutputStream.flush();
+    public void sendMessage(final ByteBuffer payload) throws IOException {
+        if (compression && payload.remaining() >= COMPRESSION_THRESHOLD) {
+            sendMessages(Collections.singletonList(payload));
+            return;
+        }
+        connection.write(payload);
+        lastActivityTime = System.nanoTime();
     }
 
     /**
-     * Закриває з'єднання із клієнтом та видаляє поточний обробник зі списку.
+     * Надсилає клієнту закодований вміст кількох повідомлень (наприклад,
+     * сторінку історії). Якщо стиснення узгоджене, повідомлення
+     * надсилаються разом у стиснених кадрах, тож стискаються й короткі
+     * повідомлення, сумарний розмір яких перевищує поріг.
+     * @param payloads закодований вміст повідомлень
+     * @throws IOException якщо сталася помилка під час надіслання
      */
-    public void close() {
+    public void sendMessages(final List<ByteBuffer> payloads) throws IOException {
+        if (!compression) {
+            for (ByteBuffer payload : payloads) {
+                connection.write(payload);
+            }
+            lastActivityTime = System.nanoTime();
+            return;
+        }
+
+        int start = 0;
+        while (start < payloads.size()) {
+            // у стиснений кадр потрапляють повідомлення, що разом не
+            // перевищують обмеження розпакованого кадру
+            int end = start;
+            int size = 0;
+            while (end < payloads.size()
+                    && (end == start || size + Frames.HEADER_SIZE + payloads.get(end).remaining()
+                    <= FrameCompression.MAX_UNCOMPRESSED_SIZE)) {
+                size += Frames.HEADER_SIZE + payloads.get(end).remaining();
+                ++end;
+            }
+            List<ByteBuffer> batch = payloads.subList(start, end);
+            byte[] compressed = size >= COMPRESSION_THRESHOLD ? FrameCompression.compress(batch) : null;
+            if (compressed != null) {
+                recordCompression(size, compressed.length);
+                connection.write(ByteBuffer.wrap(compressed));
+            } else {
+                for (ByteBuffer payload : batch) {
+                    connection.write(payload);
+                }
+            }
+            start = end;
+        }
+        lastActivityTime = System.nanoTime();
+    }
+
+    private static void recordCompression(final int size, final int compressedSize) {
+        Metrics.increment("server.compression.frames");
+        Metrics.add("server.compression.bytes-in", size);
+        Metrics.add("server.compression.bytes-out", compressedSize);
+    }
+
+    /**
+     * Перевіряє активність клієнта. Якщо клієнт неактивний довше за
+     * idleTimeout, йому надсилається перевірочне повідомлення; якщо після
+     * цього він не відповідає протягом pingTimeout, з'єднання закривається.
+     * Викликається лише потоком таймера.
+     * @param idleTimeout час неактивності до перевірки (у наносекундах)
+     * @param pingTimeout час очікування відповіді (у наносекундах)
+     * @param ping закодоване перевірочне повідомлення
+     * @return затримка до наступної перевірки (у наносекундах) або -1, якщо
+     *         з'єднання закрите
+     */
+    long checkAlive(final long idleTimeout, final long pingTimeout, final EncodedMessage ping) {
+        if (closed.get()) {
+            return -1;
+        }
+
+        long now = System.nanoTime();
+        if (pingSendTime != 0) {
+            if (lastReceiveTime - pingSendTime >= 0) {
+                // клієнт відповів
+                pingSendTime = 0;
+            } else if (now - pingSendTime >= pingTimeout) {
+                Metrics.increment("server.keep-alive.expired");
+                abort();
+                return -1;
+            } else {
+                return pingSendTime + pingTimeout - now;
+            }
+        }
+
+        long idle = now - lastActivityTime;
+        if (idle < idleTimeout) {
+            return idleTimeout - idle;
+        }
+        if (connection.getOutboundQueueDepth() > 0) {
+            // повідомлення ще надсилаються - за переповнення черги відповідає
+            // її політика, а перевірку відкладаємо
+            return pingTimeout;
+        }
+
         try {
-            clientSocket.close();
+            // черга порожня, тому запис не блокує потік таймера
+            connection.write(ping.payload());
+        } catch (IOException e) {
+            abort();
+            return -1;
+        }
+        Metrics.increment("server.keep-alive.pings");
+        pingSendTime = now;
+        return pingTimeout;
+    }
+
+    /**
+     * Запам'ятовує заплановане завдання перевірки активності, щоб скасувати
+     * його під час закриття.
+     * @param timeout заплановане завдання
+     */
+    void setKeepAliveTimeout(final HashedWheelTimer.Timeout timeout) {
+        this.keepAliveTimeout = timeout;
+        if (closed.get()) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * Закриває з'єднання із клієнтом після надіслання повідомлень, що вже
+     * очікують у черзі, та видаляє поточний обробник зі списку.
+     */
+    public void close() {
+        close(false);
+    }
+
+    /**
+     * Негайно закриває з'єднання із клієнтом, відкидаючи повідомлення, що
+     * очікують у черзі, та видаляє поточний обробник зі списку. Діє й після
+     * {@link #close()}, якщо клієнт не встиг отримати решту повідомлень.
+     */
+    public void abort() {
+        close(true);
+    }
+
+    private void close(final boolean force) {
+        boolean first = closed.compareAndSet(false, true);
+        if (first) {
+            HashedWheelTimer.Timeout timeout = keepAliveTimeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+        if (force) {
+            connection.abort();
+        } else if (first) {
+            connection.close();
+        }
+        if (first) {
             server.removeClient(this);
+        }
+    }
+
+    /**
+     * Обробляє кадр, отриманий від клієнта.
+     * @param bytes масив байтів
+     * @param offset зміщення початку вмісту кадру
+     * @param length довжина вмісту кадру
+     */
+    public void onFrameReceived(final byte[] bytes, final int offset, final int length) {
+        if (!server.isActive()) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        lastReceiveTime = now;
+        lastActivityTime = now;
+
+        if (FrameCompression.isCompressed(bytes, offset, length)) {
+            if (!inboundCompression) {
+                // стиснення не узгоджене - кадр не розпаковується
+                Metrics.increment("server.compression.rejected-frames");
+                return;
+            }
+            List<byte[]> payloads;
+            try {
+                payloads = FrameCompression.decompress(bytes, offset, length);
+            } catch (IOException e) {
+                // пошкоджений стиснений кадр
+                return;
+            }
+            for (byte[] payload : payloads) {
+                decodeAndReceive(payload, 0, payload.length);
+            }
+        } else {
+            decodeAndReceive(bytes, offset, length);
+        }
+    }
+
+    private void decodeAndReceive(final byte[] bytes, final int offset, final int length) {
+        Message message = null;
+        try {
+            message = server.getCodec().decode(bytes, offset, length);
         } catch (IOException e) {
-            // не вдалося завершити з'єднання
+            // не вдалося декодувати повідомлення
+        }
+
+        if (message != null) {
+            onMessageReceived(message);
         }
     }
 
     private void onMessageReceived(final Message message) {
+        if (message.getType() == null) {
+            // кодек не пропускає таких повідомлень, але дані надходять від
+            // клієнта, якому не можна довіряти
+            return;
+        }
         if (message.getType().equals(Message.Type.NOTIFICATION)) {
+            if (!(message.getStatus() instanceof Message.NotificationStatus)) {
+                return;
+            }
             switch ((Message.NotificationStatus) message.getStatus()) {
                 case CLOSING:
-                    // працює KEEP ALIVE, але надсилання повідомлення прискорить процес
+                    // з'єднання закрилося б після перевірки активності, але
+                    // повідомлення прискорює процес
                     close();
                     break;
+                case KEEPING_ALIVE:
+                    // відповідь на перевірку активності - час отримання вже
+                    // оновлено
+                    break;
                 case AUTH:
-                    String name = message.getName();
-                    String password = message.getContent();
-
-                    this.name = name;
-                    try {
-                        boolean auth = false;
-                        User user = userService.findByName(name);
-                        if (user != null) {
-                            auth = BCrypt.checkpw(password, user.getPassword());
-                        }
-
-                        if (!auth) {
-                            server.disconnectClientByName(name);
-                        } else {
-                            // перевірка на максимальну кількість підключень
-                            if (server.getClientsCount() > Server.CONNECTIONS_LIMIT) {
-                                server.disconnectClientByName(name);
-                            } else {
-                                // надсилаємо історію повідомлень
-                                server.sendLastMessages(this);
-                            }
-                        }
-                    } catch (DBConnectionException | PersistException e) {
-                        // не вдалося перевірити - відключаємо
-                        server.disconnectClientByName(name);
+                    if (authRequested) {
+                        // повторна авторизація в межах сесії не підтримується
+                        break;
+                    }
+                    authRequested = true;
+
+                    this.name = message.getName();
+                    this.lastSeenMessageId = message.getId();
+                    this.requestedRoom = message.getRoom();
+                    // стиснення діє лише для клієнтів, що його запропонували;
+                    // вмикається воно після завершення авторизації
+                    this.compressionRequested = COMPRESSION_ENABLED
+                            && FrameCompression.DEFLATE.equalsIgnoreCase(message.getCompression());
+                    // перевірка виконується пулом авторизації, а не потоком
+                    // читання; якщо пул перевантажений - відключаємо
+                    if (!server.getAuthService().authenticate(message.getName(), message.getContent(), message.getToken(),
+                            this::onAuthCompleted)) {
+                        server.disconnectClient(this);
+                    }
+                    break;
+                case HISTORY:
+                case SYNC:
+                case JOIN:
+                    // запит може надійти одразу після запиту на авторизацію
+                    if (authenticated || holdUntilAuthenticated(message)) {
+                        dispatch(message);
                     }
                     break;
                 default:
                     break;
             }
-        } else {
-            if (onMessageReceivedCallback != null) {
-                // для звичайного повідомлення можна дозволити
-                // виконання розсилки та зворотного виклику
-                server.sendMessage(message, this);
-                onMessageReceivedCallback.onMessageReceived(message);
-            }
+        } else if (authenticated || holdUntilAuthenticated(message)) {
+            dispatch(message);
         }
     }
 
     /**
-     * Виконує основну логіку обробника підключення до сервера в окремому
-     * потоці.
+     * Зберігає повідомлення, отримане до завершення авторизації.
+     * @param message повідомлення
+     * @return чи можна розсилати повідомлення одразу (авторизація вже
+     *         завершилася)
      */
-    @Override
-    public void run() {
-        // слухаємо поточного клієнта
-        while (!Thread.currentThread().isInterrupted() && server.isActive() && !clientSocket.isClosed()) {
-            Message message = null;
-            try {
-                message = (Message) objectInputStream.readObject();
-            } catch (IOException | ClassNotFoundException e) {
-                // не вдалося прочитати повідомлення
+    private boolean holdUntilAuthenticated(final Message message) {
+        pendingLock.lock();
+        try {
+            if (authenticated) {
+                return true;
             }
+            if (authRequested && pendingMessages.size() < MAX_PENDING_MESSAGES) {
+                pendingMessages.add(message);
+            } else {
+                // без запиту на авторизацію звичайні повідомлення не приймаються
+                Metrics.increment("server.auth.unauthenticated-messages");
+            }
+            return false;
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
+    private void dispatch(final Message message) {
+        boolean notification = message.getType().equals(Message.Type.NOTIFICATION);
+        if (notification && !acquireRateLimit()) {
+            // запити приєднання та історії читають журнал і надсилають цілі
+            // сторінки, тому обмежуються тим самим відром, що й повідомлення
+            return;
+        }
+        Room current = room;
+        if (notification && message.getStatus() == Message.NotificationStatus.JOIN) {
+            server.joinRoom(this, message.getRoom(), message.getId());
+        } else if (notification && message.getStatus() == Message.NotificationStatus.HISTORY) {
+            if (current != null) {
+                current.sendHistory(this, message.getId(), message.getCount());
+            }
+        } else if (notification && message.getStatus() == Message.NotificationStatus.SYNC) {
+            if (current != null) {
+                current.sendMessagesAfter(this, message.getId(), message.getCount());
+            }
+        } else if (onMessageReceivedCallback != null && acquireRateLimit()) {
+            // для звичайного повідомлення можна дозволити
+            // виконання розсилки та зворотного виклику
+            server.sendMessage(message, this);
+            onMessageReceivedCallback.onMessageReceived(message);
+        }
+    }
+
+    /**
+     * Перевіряє частоту текстових повідомлень і запитів приєднання та історії
+     * клієнта. Повідомлення понад обмеження відкидаються; клієнт,
+     * повідомлення якого відкидаються поспіль довше за допустиме,
+     * відключається (перевищення загальної частоти сервера не є його
+     * провиною, тому до відключення не призводить).
+     * @return чи можна розсилати повідомлення
+     */
+    private boolean acquireRateLimit() {
+        MessageRateLimiter.Result result = server.getRateLimiter().tryAcquire(rateLimitBucket, name);
+        if (result == MessageRateLimiter.Result.ALLOWED) {
+            droppedInRow.set(0);
+            return true;
+        }
+        if (result != MessageRateLimiter.Result.GLOBAL_LIMITED
+                && droppedInRow.incrementAndGet() == RATE_LIMIT_MAX_DROPPED + 1) {
+            Metrics.increment("server.rate-limit.disconnected");
+            server.disconnectClient(this);
+        }
+        return false;
+    }
 
-            if (message != null) {
-                onMessageReceived(message);
+    private void onAuthCompleted(final AuthService.AuthResult result) {
+        if (closed.get()) {
+            return;
+        }
+
+        if (result != AuthService.AuthResult.AUTHENTICATED) {
+            // неправильні дані або не вдалося перевірити - відключаємо
+            server.disconnectClient(this);
+        } else if (!server.joinRoom(this, requestedRoom, lastSeenMessageId)) {
+            // кімната заповнена або недоступна; після приєднання клієнт уже
+            // отримав пропущені повідомлення кімнати або її історію
+            server.disconnectClient(this);
+        } else {
+            server.bindClientName(this, name);
+
+            // сесійний токен для повторної авторизації без пароля
+            Message session = new Message();
+            session.setType(Message.Type.NOTIFICATION);
+            session.setStatus(Message.NotificationStatus.SESSION);
+            session.setToken(server.getAuthService().issueSessionToken(name));
+            if (compressionRequested) {
+                session.setCompression(FrameCompression.DEFLATE);
+                inboundCompression = true;
             }
+            server.sendMessage(this, session);
+            // наступні кадри надходять клієнту після повідомлення про
+            // стиснення, тому їх уже можна стискати
+            compression = compressionRequested;
 
+            pendingLock.lock();
             try {
-                Thread.sleep(READ_PERIOD);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+                // повідомлення, отримані під час авторизації, розсилаються
+                // раніше за наступні, тому порядок зберігається
+                for (Message message : pendingMessages) {
+                    dispatch(message);
+                }
+                pendingMessages.clear();
+                authenticated = true;
+            } finally {
+                pendingLock.unlock();
             }
         }
     }
 
+    /**
+     * Повертає кімнату, учасником якої є клієнт.
+     * @return кімната або null, якщо клієнт ще не приєднаний до кімнати
+     */
+    public Room getRoom() {
+        return room;
+    }
+
+    /**
+     * Встановлює кімнату, учасником якої є клієнт.
+     * @param room кімната
+     */
+    void setRoom(final Room room) {
+        this.room = room;
+    }
+
     /**
      * Повертає ім'я користувача.
      * @return ім'я користувача
@@ -187,6 +633,14 @@ public class ClientHandler implements Runnable {
         return name;
     }
 
+    /**
+     * Повертає кількість повідомлень, що очікують надіслання клієнту.
+     * @return глибина черги вихідних повідомлень
+     */
+    public int getOutboundQueueDepth() {
+        return connection.getOutboundQueueDepth();
+    }
+
     /**
      * Порівнює об'єкти за вмістом.
      * @param o інший об'єкт
@@ -201,7 +655,7 @@ public class ClientHandler implements Runnable {
             return false;
         }
         ClientHandler that = (ClientHandler) o;
-        return Objects.equals(clientSocket, that.clientSocket) && Objects.equals(server, that.server) && Objects.equals(objectInputStream, that.objectInputStream) && Objects.equals(objectOutputStream, that.objectOutputStream) && Objects.equals(onMessageReceivedCallback, that.onMessageReceivedCallback);
+        return Objects.equals(connection, that.connection) && Objects.equals(server, that.server) && Objects.equals(onMessageReceivedCallback, that.onMessageReceivedCallback);
     }
 
     /**
@@ -210,6 +664,6 @@ public class ClientHandler implements Runnable {
      */
     @Override
     public int hashCode() {
-        return Objects.hash(clientSocket, server, objectInputStream, objectOutputStream, onMessageReceivedCallback);
+        return Objects.hash(connection, server, onMessageReceivedCallback);
     }
 }
@@ -0,0 +1,123 @@
+package com.fluffy.server.models;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Клас потокобезпечного реєстру підключених клієнтів. Додавання та видалення
+ * виконуються за O(1) без блокування всього реєстру, обхід для розсилки не
+ * блокує інші потоки і не кидає ConcurrentModificationException, а пошук
+ * сесій за іменем користувача не потребує перебору. Один користувач може
+ * мати декілька одночасних сесій.
+ * @author Сивоконь Вадим
+ */
+public class ClientRegistry implements Iterable<ClientHandler> {
+    /**
+     * Множина підключених клієнтів.
+     */
+    private final Set<ClientHandler> clients;
+
+    /**
+     * Індекс сесій (клієнтів) за іменем користувача.
+     */
+    private final ConcurrentMap<String, Set<ClientHandler>> sessionsByName;
+
+    /**
+     * Конструктор об'єкта реєстру.
+     */
+    public ClientRegistry() {
+        this.clients = ConcurrentHashMap.newKeySet();
+        this.sessionsByName = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Додає клієнта до реєстру.
+     * @param client клієнт
+     * @return чи був клієнт доданий (false, якщо він уже є в реєстрі)
+     */
+    public boolean add(final ClientHandler client) {
+        return clients.add(client);
+    }
+
+    /**
+     * Пов'язує клієнта з іменем користувача для подальшого пошуку.
+     * @param client клієнт
+     * @param name ім'я користувача
+     */
+    public void bindName(final ClientHandler client, final String name) {
+        if (name != null && clients.contains(client)) {
+            sessionsByName.compute(name, (key, sessions) -> {
+                Set<ClientHandler> result = sessions != null ? sessions : ConcurrentHashMap.newKeySet();
+                result.add(client);
+                return result;
+            });
+            if (!clients.contains(client)) {
+                // клієнт був видалений паралельно - прибираємо запис індексу
+                unbindName(client, name);
+            }
+        }
+    }
+
+    private void unbindName(final ClientHandler client, final String name) {
+        sessionsByName.computeIfPresent(name, (key, sessions) -> {
+            sessions.remove(client);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+
+    /**
+     * Видаляє клієнта з реєстру.
+     * @param client клієнт
+     * @return чи був клієнт видалений (false, якщо його вже не було в реєстрі)
+     */
+    public boolean remove(final ClientHandler client) {
+        if (!clients.remove(client)) {
+            return false;
+        }
+        String name = client.getName();
+        if (name != null) {
+            unbindName(client, name);
+        }
+        return true;
+    }
+
+    /**
+     * Шукає всі сесії користувача за його іменем.
+     * @param name ім'я користувача
+     * @return незмінна множина сесій (порожня, якщо користувач не підключений)
+     */
+    public Set<ClientHandler> findByName(final String name) {
+        Set<ClientHandler> sessions = name == null ? null : sessionsByName.get(name);
+        return sessions == null ? Collections.emptySet() : Collections.unmodifiableSet(sessions);
+    }
+
+    /**
+     * Перевіряє, чи є клієнт у реєстрі.
+     * @param client клієнт
+     * @return чи є клієнт у реєстрі
+     */
+    public boolean contains(final ClientHandler client) {
+        return clients.contains(client);
+    }
+
+    /**
+     * Повертає кількість клієнтів у реєстрі.
+     * @return кількість клієнтів
+     */
+    public int size() {
+        return clients.size();
+    }
+
+    /**
+     * Повертає ітератор для обходу клієнтів. Ітератор слабко узгоджений: він
+     * не блокує реєстр і відображає стан на момент обходу.
+     * @return ітератор
+     */
+    @Override
+    public Iterator<ClientHandler> iterator() {
+        return clients.iterator();
+    }
+}
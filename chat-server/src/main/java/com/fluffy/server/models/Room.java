@@ -0,0 +1,456 @@
+package com.fluffy.server.models;
+
+import com.fluffy.messaging.EncodedMessage;
+import com.fluffy.messaging.Message;
+import com.fluffy.messaging.MessageCodec;
+import com.fluffy.server.network.NioEventLoop;
+import com.fluffy.server.util.MessageJournal;
+import com.fluffy.server.util.Metrics;
+import com.fluffy.util.ConcurrentRingBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Клас моделі кімнати. Повідомлення кімнати розсилаються лише її учасникам,
+ * а кожна кімната має власну історію (останні повідомлення в пам'яті та,
+ * якщо він увімкнений, журнал на диску), власну послідовність номерів
+ * повідомлень та власне обмеження кількості учасників.
+ * @author Сивоконь Вадим
+ */
+public class Room {
+    /**
+     * Назва кімнати.
+     */
+    private final String name;
+
+    /**
+     * Максимальна кількість учасників.
+     */
+    private final int connectionsLimit;
+
+    /**
+     * Кодек повідомлень.
+     */
+    private final MessageCodec codec;
+
+    /**
+     * Кількість повідомлень історії, що надсилаються учаснику під час
+     * приєднання, якщо журнал увімкнений.
+     */
+    private final int replayLimit;
+
+    /**
+     * Максимальна кількість повідомлень в одній сторінці історії.
+     */
+    private final int pageLimit;
+
+    /**
+     * Учасники кімнати.
+     */
+    private final Set<ClientHandler> members;
+
+    /**
+     * Останні повідомлення (уже закодовані для надіслання).
+     */
+    private final ConcurrentRingBuffer<EncodedMessage> lastMessages;
+
+    /**
+     * Блокування для призначення номерів повідомлень: номери призначаються, а
+     * повідомлення додаються до історії та журналу в одному порядку.
+     * Під ним ніхто не очікує місця в черзі журналу, тому блокування
+     * утримується недовго навіть у циклі подій.
+     */
+    private final ReentrantLock historyLock = new ReentrantLock();
+
+    /**
+     * Журнал повідомлень або null, якщо журнал вимкнений чи вже закритий
+     * (читається один раз у локальну змінну, бо закриття може відбутися
+     * одночасно з розсилкою або запитом історії).
+     */
+    private volatile MessageJournal journal;
+
+    /**
+     * Номер наступного повідомлення в історії.
+     */
+    private long nextMessageId;
+
+    /**
+     * Конструктор об'єкта кімнати.
+     * @param name назва кімнати
+     * @param connectionsLimit максимальна кількість учасників
+     * @param codec кодек повідомлень
+     * @param historyLimit кількість останніх повідомлень, що зберігаються в пам'яті
+     * @param replayLimit кількість повідомлень історії, що надсилаються під час
+     *                    приєднання, якщо журнал увімкнений
+     * @param pageLimit максимальна кількість повідомлень у сторінці історії
+     */
+    public Room(final String name, final int connectionsLimit, final MessageCodec codec,
+                final int historyLimit, final int replayLimit, final int pageLimit) {
+        this.name = name;
+        this.connectionsLimit = connectionsLimit;
+        this.codec = codec;
+        this.replayLimit = replayLimit;
+        this.pageLimit = pageLimit;
+        this.members = ConcurrentHashMap.newKeySet();
+        this.lastMessages = new ConcurrentRingBuffer<>(historyLimit);
+    }
+
+    /**
+     * Відкриває історію кімнати: відкриває журнал (якщо він переданий) та
+     * відновлює з його кінця останні повідомлення.
+     * @param journal журнал кімнати (ще не відкритий) або null
+     * @throws IOException якщо журнал не вдалося відкрити
+     */
+    public void open(final MessageJournal journal) throws IOException {
+        if (journal != null) {
+            journal.open("message-journal-" + name);
+            this.journal = journal;
+            for (ByteBuffer payload : journal.readLast(lastMessages.capacity())) {
+                EncodedMessage encoded = decode(payload);
+                if (encoded != null) {
+                    lastMessages.add(encoded);
+                }
+            }
+            nextMessageId = journal.getNextSeq();
+        } else {
+            // без журналу номери продовжують зростати після перезапуску,
+            // доки кімната отримує менше тисячі повідомлень за мілісекунду
+            nextMessageId = System.currentTimeMillis() * 1000;
+        }
+    }
+
+    /**
+     * Закриває журнал кімнати, якщо він відкритий.
+     */
+    public void close() {
+        MessageJournal current = journal;
+        if (current != null) {
+            journal = null;
+            current.close();
+        }
+    }
+
+    /**
+     * Додає клієнта до учасників кімнати.
+     * @param client клієнт
+     * @return чи є клієнт учасником кімнати (false, якщо кімната заповнена)
+     */
+    public synchronized boolean join(final ClientHandler client) {
+        if (members.contains(client)) {
+            return true;
+        }
+        if (members.size() >= connectionsLimit) {
+            return false;
+        }
+        return members.add(client);
+    }
+
+    /**
+     * Видаляє клієнта з учасників кімнати.
+     * @param client клієнт
+     */
+    public void leave(final ClientHandler client) {
+        members.remove(client);
+    }
+
+    private EncodedMessage encode(final Message message) {
+        try {
+            return EncodedMessage.encode(message, codec);
+        } catch (IOException e) {
+            // повідомлення не вдалося закодувати - надсилати нічого
+            return null;
+        }
+    }
+
+    private EncodedMessage decode(final ByteBuffer payload) {
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        try {
+            return EncodedMessage.encode(codec.decode(bytes, 0, bytes.length), codec);
+        } catch (IOException e) {
+            // пошкоджений запис пропускається
+            return null;
+        }
+    }
+
+    /**
+     * Призначає повідомленню номер, кодує його та додає до історії й журналу.
+     * @param message повідомлення
+     * @return закодоване повідомлення або null, якщо його не вдалося закодувати
+     */
+    private EncodedMessage remember(final Message message) {
+        MessageJournal journalBeforeLock = journal;
+        if (journalBeforeLock != null && !NioEventLoop.inAnyEventLoop()) {
+            // повільний диск гальмує відправника до взяття блокування, тому
+            // на нього не чекають інші відправники кімнати та цикли подій
+            journalBeforeLock.awaitCapacity();
+        }
+        historyLock.lock();
+        try {
+            message.setId(nextMessageId);
+            EncodedMessage encoded = encode(message);
+            if (encoded == null) {
+                // номер не витрачається, щоб в історії не було пропусків
+                message.setId(0);
+                return null;
+            }
+            ++nextMessageId;
+            lastMessages.add(encoded);
+            MessageJournal current = journal;
+            if (current != null) {
+                // якщо місця в черзі немає (цикл подій або вичерпаний час
+                // очікування), журнал відкидає запис, а повідомлення однаково
+                // розсилається та залишається в історії в пам'яті
+                current.append(message.getId(), encoded.payload());
+            }
+            return encoded;
+        } finally {
+            historyLock.unlock();
+        }
+    }
+
+    /**
+     * Надсилає повідомлення всім учасникам кімнати за винятком одного.
+     * Звичайне повідомлення отримує номер і потрапляє до історії кімнати.
+     * Повідомлення кодується один раз, а ті самі байти надсилаються кожному
+     * учаснику.
+     * @param message повідомлення
+     * @param other учасник-виняток або null
+     */
+    public void sendMessage(final Message message, final ClientHandler other) {
+        message.setRoom(name);
+        EncodedMessage encoded = message.getType().equals(Message.Type.NOTIFICATION)
+                ? encode(message) : remember(message);
+        if (encoded == null) {
+            return;
+        }
+        for (ClientHandler client : members) {
+            if (!client.equals(other)) {
+                try {
+                    client.sendMessage(encoded);
+                } catch (IOException e) {
+                    // не вдалося надіслати повідомлення - можливо, клієнт від'єднався
+                    client.abort();
+                }
+            }
+        }
+    }
+
+    /**
+     * Надсилає останні повідомлення одному клієнту. Якщо журнал увімкнений,
+     * вміст повідомлень передається з відображених у пам'ять сегментів без
+     * декодування та повторного кодування, тому історія може бути значно
+     * довшою за збережену в пам'яті.
+     * @param client клієнт
+     */
+    public void sendLastMessages(final ClientHandler client) {
+        try {
+            sendPage(client, 0, journal != null ? replayLimit : lastMessages.capacity());
+        } catch (IOException e) {
+            client.abort();
+        }
+    }
+
+    /**
+     * Надсилає клієнту, що щойно приєднався, повідомлення, пропущені з
+     * моменту попереднього підключення. Якщо клієнт приєднується вперше або
+     * пропущені повідомлення вже не зберігаються (чи клієнт отримував їх від
+     * іншого екземпляра історії), надсилає сповіщення RESET та останні
+     * повідомлення.
+     * @param client клієнт
+     * @param lastSeenId номер останнього отриманого клієнтом повідомлення
+     *                   (0 - клієнт приєднується вперше)
+     */
+    public void sendCatchUp(final ClientHandler client, final long lastSeenId) {
+        if (lastSeenId > 0 && isRetainedAfter(lastSeenId)) {
+            Metrics.increment("server.history.catch-up.delta");
+            sendMessagesAfter(client, lastSeenId, pageLimit);
+            return;
+        }
+
+        if (lastSeenId > 0) {
+            Metrics.increment("server.history.catch-up.reset");
+            Message reset = new Message();
+            reset.setType(Message.Type.NOTIFICATION);
+            reset.setStatus(Message.NotificationStatus.RESET);
+            EncodedMessage encoded = encode(reset);
+            try {
+                if (encoded != null) {
+                    client.sendMessage(encoded);
+                }
+            } catch (IOException e) {
+                client.abort();
+                return;
+            }
+        }
+        sendLastMessages(client);
+    }
+
+    private boolean isRetainedAfter(final long afterId) {
+        long next;
+        historyLock.lock();
+        try {
+            next = nextMessageId;
+        } finally {
+            historyLock.unlock();
+        }
+        if (afterId >= next) {
+            // номер не з цієї історії (наприклад, журнал був видалений)
+            return false;
+        }
+        if (afterId + 1 == next) {
+            return true;
+        }
+        long first;
+        MessageJournal current = journal;
+        if (current != null) {
+            first = current.getFirstSeq();
+        } else {
+            List<EncodedMessage> snapshot = lastMessages.snapshot();
+            first = snapshot.isEmpty() ? next : snapshot.get(0).getMessage().getId();
+        }
+        return first <= afterId + 1;
+    }
+
+    /**
+     * Надсилає одному клієнту сторінку історії - повідомлення, що передують
+     * указаному, після чого надсилає сповіщення HISTORY з кількістю
+     * надісланих повідомлень. Сторінка береться з пам'яті, а якщо там
+     * недостатньо повідомлень - із журналу.
+     * @param client клієнт
+     * @param beforeId номер повідомлення, що не включається до сторінки
+     *                 (0 - найновіші повідомлення)
+     * @param count кількість повідомлень (не більше за обмеження сторінки;
+     *              0 - обмеження сторінки)
+     */
+    public void sendHistory(final ClientHandler client, final long beforeId, final int count) {
+        int limit = count <= 0 ? pageLimit : Math.min(count, pageLimit);
+        Message marker = new Message();
+        marker.setType(Message.Type.NOTIFICATION);
+        marker.setStatus(Message.NotificationStatus.HISTORY);
+        marker.setId(Math.max(0, beforeId));
+        try {
+            marker.setCount(sendPage(client, beforeId, limit));
+            EncodedMessage encoded = encode(marker);
+            if (encoded != null) {
+                client.sendMessage(encoded);
+            }
+        } catch (IOException e) {
+            client.abort();
+        }
+    }
+
+    /**
+     * Надсилає одному клієнту повідомлення, що йдуть після указаного, після
+     * чого надсилає сповіщення SYNC з кількістю надісланих повідомлень та
+     * номером останнього з них.
+     * Повідомлення беруться з пам'яті, а якщо там уже немає наступного після
+     * указаного - із журналу.
+     * @param client клієнт
+     * @param afterId номер останнього повідомлення, яке має клієнт
+     * @param count кількість повідомлень (не більше за обмеження сторінки;
+     *              0 - обмеження сторінки)
+     */
+    public void sendMessagesAfter(final ClientHandler client, final long afterId, final int count) {
+        int limit = count <= 0 ? pageLimit : Math.min(count, pageLimit);
+        Message marker = new Message();
+        marker.setType(Message.Type.NOTIFICATION);
+        marker.setStatus(Message.NotificationStatus.SYNC);
+        marker.setId(afterId);
+        try {
+            MessageJournal current = journal;
+            List<EncodedMessage> snapshot = lastMessages.snapshot();
+            int sent = 0;
+            if (current == null || !snapshot.isEmpty() && snapshot.get(0).getMessage().getId() <= afterId + 1) {
+                List<ByteBuffer> page = new ArrayList<>();
+                for (EncodedMessage message : snapshot) {
+                    if (sent == limit) {
+                        break;
+                    }
+                    if (message.getMessage().getId() > afterId) {
+                        page.add(message.payload());
+                        marker.setId(message.getMessage().getId());
+                        ++sent;
+                    }
+                }
+                client.sendMessages(page);
+            } else {
+                List<ByteBuffer> page = current.read(afterId + 1, limit);
+                sent = page.size();
+                if (sent > 0) {
+                    // номер останнього запису потрібен клієнту для наступного
+                    // запиту (декодується до надіслання, яке зсуває позиції
+                    // буферів)
+                    EncodedMessage last = decode(page.get(sent - 1).duplicate());
+                    marker.setId(last != null ? last.getMessage().getId() : afterId + sent);
+                }
+                client.sendMessages(page);
+            }
+            marker.setCount(sent);
+            EncodedMessage encoded = encode(marker);
+            if (encoded != null) {
+                client.sendMessage(encoded);
+            }
+        } catch (IOException e) {
+            client.abort();
+        }
+    }
+
+    private int sendPage(final ClientHandler client, final long beforeId, final int limit) throws IOException {
+        long before = beforeId <= 0 ? Long.MAX_VALUE : beforeId;
+        MessageJournal current = journal;
+        List<EncodedMessage> snapshot = lastMessages.snapshot();
+        int end = snapshot.size();
+        while (end > 0 && snapshot.get(end - 1).getMessage().getId() >= before) {
+            --end;
+        }
+        int start = Math.max(0, end - limit);
+        // пам'ять достатня, якщо в ній уся сторінка або вся історія з першого повідомлення
+        boolean fromMemory = end - start == limit || current == null
+                || end > 0 && snapshot.get(0).getMessage().getId() <= 1;
+        if (fromMemory) {
+            List<ByteBuffer> page = new ArrayList<>(end - start);
+            for (EncodedMessage message : snapshot.subList(start, end)) {
+                page.add(message.payload());
+            }
+            client.sendMessages(page);
+            return end - start;
+        }
+
+        // у пам'яті недостатньо повідомлень - сторінка читається з журналу
+        List<ByteBuffer> page = beforeId <= 0 ? current.readLast(limit) : current.readBefore(beforeId, limit);
+        client.sendMessages(page);
+        return page.size();
+    }
+
+    /**
+     * Повертає назву кімнати.
+     * @return назва кімнати
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Повертає кількість учасників кімнати.
+     * @return кількість учасників
+     */
+    public int getMembersCount() {
+        return members.size();
+    }
+
+    /**
+     * Повертає кількість записів журналу кімнати, що очікують запису у файл.
+     * @return кількість записів (0, якщо журнал вимкнений)
+     */
+    public int getJournalPendingCount() {
+        MessageJournal current = journal;
+        return current != null ? current.getPendingCount() : 0;
+    }
+}
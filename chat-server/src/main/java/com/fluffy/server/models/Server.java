@@ -2,20 +2,52 @@ package com.fluffy.server.models;
 
 import com.fluffy.callbacks.OnConnectionsCountChangedCallback;
 import com.fluffy.callbacks.OnMessageReceivedCallback;
+import com.fluffy.messaging.EncodedMessage;
 import com.fluffy.messaging.Message;
+import com.fluffy.messaging.MessageCodec;
+import com.fluffy.messaging.MessageCodecs;
+import com.fluffy.server.network.ClientConnection;
+import com.fluffy.server.network.NioClientConnection;
+import com.fluffy.server.network.NioEventLoop;
+import com.fluffy.server.network.SocketClientConnection;
+import com.fluffy.server.services.AuthService;
+import com.fluffy.server.services.MessageRateLimiter;
+import com.fluffy.server.services.SessionTokens;
+import com.fluffy.server.services.VerifiedCredentialsCache;
+import com.fluffy.server.util.HashedWheelTimer;
+import com.fluffy.server.util.MessageJournal;
+import com.fluffy.server.util.Metrics;
+import com.fluffy.server.util.TokenBucket;
+import com.fluffy.util.ConnectionThreads;
 import com.fluffy.util.Environment;
-import com.fluffy.util.LimitedLinkedList;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.util.LinkedList;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 /**
  * Клас моделі сервера, об'єкти якого підтримують зв'язок із клієнтами.
@@ -23,15 +55,112 @@ import java.util.Queue;
  */
 public class Server implements Runnable {
     /**
-     * Період (у мілісекундах) перевірки наявності підключення від клієнта до
-     * сервера.
+     * Час неактивності клієнта (у мілісекундах), після якого йому
+     * надсилається перевірочне повідомлення.
      */
-    private static final int KEEP_ALIVE_PERIOD = Integer.parseInt(Environment.getProperty("server.keep-alive-period"));
+    private static final long KEEP_ALIVE_IDLE_TIMEOUT = Long.parseLong(Environment.getProperty("server.keep-alive.idle-timeout"));
 
     /**
-     * Період (у мілісекундах) отримання нових з'єднань.
+     * Час очікування відповіді на перевірочне повідомлення (у мілісекундах),
+     * після якого з'єднання закривається.
      */
-    private static final int ACCEPTANCE_PERIOD = Integer.parseInt(Environment.getProperty("server.acceptance-period"));
+    private static final long KEEP_ALIVE_PING_TIMEOUT = Long.parseLong(Environment.getProperty("server.keep-alive.ping-timeout"));
+
+    /**
+     * Тривалість такту таймера перевірки активності (у мілісекундах).
+     */
+    private static final long KEEP_ALIVE_TICK = Long.parseLong(Environment.getProperty("server.keep-alive.tick"));
+
+    /**
+     * Кількість кошиків колеса таймера перевірки активності.
+     */
+    private static final int KEEP_ALIVE_WHEEL_SIZE = Integer.parseInt(Environment.getProperty("server.keep-alive.wheel-size"));
+
+    /**
+     * Час (у мілісекундах), протягом якого примусово відключений клієнт
+     * може отримати сповіщення про відключення, перш ніж з'єднання буде
+     * закрите без очікування.
+     */
+    private static final long DISCONNECT_GRACE_PERIOD = Long.parseLong(Environment.getProperty("server.disconnect.grace-period"));
+
+    /**
+     * Максимальна довжина черги з'єднань, які очікують на прийняття.
+     */
+    private static final int ACCEPT_BACKLOG = Integer.parseInt(Environment.getProperty("server.accept.backlog"));
+
+    /**
+     * Максимальна кількість нових з'єднань, що приймаються за секунду.
+     */
+    private static final int ACCEPT_RATE_LIMIT = Integer.parseInt(Environment.getProperty("server.accept.rate-limit"));
+
+    /**
+     * Кількість потоків для встановлення прийнятих з'єднань.
+     */
+    private static final int HANDSHAKE_THREADS = Integer.parseInt(Environment.getProperty("server.accept.handshake-threads"));
+
+    /**
+     * Кількість потоків перевірки авторизації.
+     */
+    private static final int AUTH_THREADS = Integer.parseInt(Environment.getProperty("server.auth.threads"));
+
+    /**
+     * Місткість черги запитів на авторизацію.
+     */
+    private static final int AUTH_QUEUE_CAPACITY = Integer.parseInt(Environment.getProperty("server.auth.queue-capacity"));
+
+    /**
+     * Максимальний час очікування запиту на авторизацію в черзі (у
+     * мілісекундах).
+     */
+    private static final long AUTH_MAX_QUEUE_TIME = Long.parseLong(Environment.getProperty("server.auth.max-queue-time"));
+
+    /**
+     * Час життя запису кешу успішних перевірок пароля (у мілісекундах).
+     */
+    private static final long AUTH_VERIFIED_CACHE_TTL = Long.parseLong(Environment.getProperty("server.auth.verified-cache.ttl"));
+
+    /**
+     * Максимальна кількість записів кешу успішних перевірок пароля.
+     */
+    private static final int AUTH_VERIFIED_CACHE_MAX_SIZE = Integer.parseInt(Environment.getProperty("server.auth.verified-cache.max-size"));
+
+    /**
+     * Час дії сесійного токена (у мілісекундах).
+     */
+    private static final long AUTH_SESSION_TOKEN_TTL = Long.parseLong(Environment.getProperty("server.auth.session-token.ttl"));
+
+    /**
+     * Частота текстових повідомлень одного з'єднання (повідомлень на
+     * секунду).
+     */
+    private static final double RATE_LIMIT_SESSION_RATE = Double.parseDouble(Environment.getProperty("server.rate-limit.session.rate"));
+
+    /**
+     * Розмір сплеску текстових повідомлень одного з'єднання.
+     */
+    private static final double RATE_LIMIT_SESSION_BURST = Double.parseDouble(Environment.getProperty("server.rate-limit.session.burst"));
+
+    /**
+     * Частота текстових повідомлень одного користувача з усіх його з'єднань
+     * (повідомлень на секунду).
+     */
+    private static final double RATE_LIMIT_USER_RATE = Double.parseDouble(Environment.getProperty("server.rate-limit.user.rate"));
+
+    /**
+     * Розмір сплеску текстових повідомлень одного користувача.
+     */
+    private static final double RATE_LIMIT_USER_BURST = Double.parseDouble(Environment.getProperty("server.rate-limit.user.burst"));
+
+    /**
+     * Загальна частота текстових повідомлень сервера (повідомлень на
+     * секунду).
+     */
+    private static final double RATE_LIMIT_GLOBAL_RATE = Double.parseDouble(Environment.getProperty("server.rate-limit.global.rate"));
+
+    /**
+     * Розмір загального сплеску текстових повідомлень.
+     */
+    private static final double RATE_LIMIT_GLOBAL_BURST = Double.parseDouble(Environment.getProperty("server.rate-limit.global.burst"));
 
     /**
      * Максимальна кількість повідомлень для збереження історії.
@@ -39,9 +168,35 @@ public class Server implements Runnable {
     private static final int LAST_MESSAGES_LIMIT = Integer.parseInt(Environment.getProperty("server.last-messages-limit"));
 
     /**
-     * Максимальна кількість підключень до сервера.
+     * Кількість повідомлень історії, що надсилаються клієнту після
+     * авторизації, якщо журнал увімкнений.
+     */
+    private static final int HISTORY_REPLAY_LIMIT = Integer.parseInt(Environment.getProperty("server.history.replay-limit"));
+
+    /**
+     * Максимальна кількість повідомлень в одній сторінці історії.
+     */
+    private static final int HISTORY_PAGE_LIMIT = Integer.parseInt(Environment.getProperty("server.history.page-limit"));
+
+    /**
+     * Назва кімнати, до якої приєднуються клієнти, що не вказали кімнату.
+     */
+    private static final String DEFAULT_ROOM = Environment.getProperty("server.rooms.default");
+
+    /**
+     * Максимальна кількість кімнат.
+     */
+    private static final int ROOMS_LIMIT = Integer.parseInt(Environment.getProperty("server.rooms.limit"));
+
+    /**
+     * Максимальна кількість учасників однієї кімнати.
+     */
+    private static final int ROOM_CONNECTIONS_LIMIT = Integer.parseInt(Environment.getProperty("server.rooms.connections-limit"));
+
+    /**
+     * Шаблон назви кімнати (назва використовується як назва теки журналу).
      */
-    public static final int CONNECTIONS_LIMIT = Integer.parseInt(Environment.getProperty("server.connections-limit"));
+    private static final Pattern ROOM_NAME_PATTERN = Pattern.compile("[\\p{L}\\p{N}_-]{1,32}");
 
     /**
      * Адреса для отримання IP сервера.
@@ -53,30 +208,139 @@ public class Server implements Runnable {
      */
     private static final int IP_TEST_PORT = Integer.parseInt(Environment.getProperty("server.ip-test-port"));
 
+    /**
+     * Чи використовується неблокуючий транспорт (NIO) замість окремого
+     * потоку на кожного клієнта.
+     */
+    private static final boolean NIO_TRANSPORT = "nio".equalsIgnoreCase(Environment.getProperty("server.transport"));
+
+    /**
+     * Фабрика потоків обслуговування з'єднань для блокуючого транспорту
+     * (платформні або віртуальні потоки).
+     */
+    private static final ThreadFactory CONNECTION_THREADS = ConnectionThreads.forMode(Environment.getProperty("server.threads"));
+
+    /**
+     * Кількість циклів подій для неблокуючого транспорту.
+     */
+    private static final int NIO_EVENT_LOOPS = Integer.parseInt(Environment.getProperty("server.nio.event-loops"));
+
+    /**
+     * Назва кодека повідомлень.
+     */
+    private static final String CODEC_NAME = Environment.getProperty("messaging.codec").toLowerCase();
+
+    /**
+     * Кодек повідомлень.
+     */
+    private static final MessageCodec CODEC = MessageCodecs.byName(CODEC_NAME);
+
+    /**
+     * Чи зберігаються повідомлення в журналі на диску.
+     */
+    private static final boolean JOURNAL_ENABLED = Boolean.parseBoolean(Environment.getProperty("server.journal.enabled"));
+
+    /**
+     * Тека журналів повідомлень (журнал кожної кімнати - у підтеці з її
+     * назвою).
+     */
+    private static final String JOURNAL_DIRECTORY = Environment.getProperty("server.journal.directory");
+
+    /**
+     * Граничний розмір сегмента журналу (у байтах).
+     */
+    private static final long JOURNAL_SEGMENT_SIZE = Long.parseLong(Environment.getProperty("server.journal.segment-size"));
+
+    /**
+     * Максимальна кількість сегментів журналу.
+     */
+    private static final int JOURNAL_MAX_SEGMENTS = Integer.parseInt(Environment.getProperty("server.journal.max-segments"));
+
+    /**
+     * Час накопичення пакета записів журналу перед fsync (у мілісекундах).
+     */
+    private static final long JOURNAL_FLUSH_INTERVAL = Long.parseLong(Environment.getProperty("server.journal.flush-interval"));
+
+    /**
+     * Місткість черги записів журналу.
+     */
+    private static final int JOURNAL_QUEUE_CAPACITY = Integer.parseInt(Environment.getProperty("server.journal.queue-capacity"));
+
+    /**
+     * Максимальний час очікування місця в черзі записів журналу (у
+     * мілісекундах).
+     */
+    private static final long JOURNAL_APPEND_TIMEOUT = Long.parseLong(Environment.getProperty("server.journal.append-timeout"));
+
     /**
      * Порт.
      */
     private final int port;
 
     /**
-     * Сокет сервера.
+     * Сокет сервера (блокуючий транспорт).
      */
     private ServerSocket serverSocket;
 
     /**
-     * Список підключених клієнтів.
+     * Канал сервера (неблокуючий транспорт).
      */
-    private List<ClientHandler> clients;
+    private ServerSocketChannel serverSocketChannel;
+
+    /**
+     * Цикли подій (неблокуючий транспорт).
+     */
+    private NioEventLoop[] eventLoops;
+
+    /**
+     * Номер наступного циклу подій для розподілу підключень.
+     */
+    private int nextEventLoop;
+
+    /**
+     * Обмежувач частоти прийняття нових з'єднань.
+     */
+    private TokenBucket acceptLimiter;
+
+    /**
+     * Виконавець, що встановлює прийняті з'єднання поза потоком прийняття.
+     */
+    private ExecutorService handshakeExecutor;
+
+    /**
+     * Сервіс авторизації клієнтів.
+     */
+    private AuthService authService;
+
+    /**
+     * Обмежувач частоти текстових повідомлень від клієнтів.
+     */
+    private MessageRateLimiter rateLimiter;
+
+    /**
+     * Таймер перевірки активності клієнтів.
+     */
+    private HashedWheelTimer keepAliveTimer;
+
+    /**
+     * Закодоване перевірочне повідомлення.
+     */
+    private EncodedMessage keepAliveMessage;
+
+    /**
+     * Реєстр підключених клієнтів.
+     */
+    private ClientRegistry clients;
 
     /**
      * Стан сервера.
      */
-    private boolean active;
+    private volatile boolean active;
 
     /**
-     * Список останніх повідомлень.
+     * Кімнати за назвою.
      */
-    private Queue<Message> lastMessages;
+    private final ConcurrentMap<String, Room> rooms = new ConcurrentHashMap<>();
 
     /**
      * Обробник отримання звичайного повідомлення.
@@ -105,29 +369,62 @@ public class Server implements Runnable {
     public void startup(final OnMessageReceivedCallback onMessageReceivedCallback,
                         final OnConnectionsCountChangedCallback onConnectionsCountChangedCallback) throws IOException {
         if (!active) {
-            serverSocket = new ServerSocket(port);
-            clients = new LinkedList<>();
-            lastMessages = new LimitedLinkedList<>(LAST_MESSAGES_LIMIT);
+            try {
+                // історія кімнат відновлюється з журналів до прийняття підключень
+                openRoom(DEFAULT_ROOM);
+                for (String name : listJournaledRooms()) {
+                    if (rooms.size() < ROOMS_LIMIT) {
+                        openRoom(name);
+                    }
+                }
+            } catch (IOException e) {
+                closeRooms();
+                throw e;
+            }
+
+            try {
+                if (NIO_TRANSPORT) {
+                    serverSocketChannel = ServerSocketChannel.open();
+                    serverSocketChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+                    eventLoops = new NioEventLoop[NIO_EVENT_LOOPS];
+                    for (int i = 0; i < eventLoops.length; ++i) {
+                        eventLoops[i] = new NioEventLoop();
+                        eventLoops[i].start("nio-event-loop-" + i);
+                    }
+                } else {
+                    serverSocket = new ServerSocket(port, ACCEPT_BACKLOG);
+                }
+            } catch (IOException e) {
+                // порт зайнятий - журнали звільняються для наступної спроби
+                closeRooms();
+                throw e;
+            }
+            acceptLimiter = new TokenBucket(ACCEPT_RATE_LIMIT, ACCEPT_RATE_LIMIT);
+            handshakeExecutor = Executors.newFixedThreadPool(HANDSHAKE_THREADS);
+            authService = new AuthService(AUTH_THREADS, AUTH_QUEUE_CAPACITY, AUTH_MAX_QUEUE_TIME,
+                    new VerifiedCredentialsCache(AUTH_VERIFIED_CACHE_TTL, AUTH_VERIFIED_CACHE_MAX_SIZE),
+                    new SessionTokens(AUTH_SESSION_TOKEN_TTL));
+            rateLimiter = new MessageRateLimiter(RATE_LIMIT_SESSION_RATE, RATE_LIMIT_SESSION_BURST,
+                    RATE_LIMIT_USER_RATE, RATE_LIMIT_USER_BURST, RATE_LIMIT_GLOBAL_RATE, RATE_LIMIT_GLOBAL_BURST);
+            clients = new ClientRegistry();
             this.onMessageReceivedCallback = onMessageReceivedCallback;
             this.onConnectionsCountChangedCallback = onConnectionsCountChangedCallback;
             active = true;
-            new Thread(this).start();
+            Metrics.registerGauge("server.outbound-queue.depth", this::getOutboundQueueDepth);
+            Metrics.registerGauge("server.outbound-queue.max-depth", this::getMaxOutboundQueueDepth);
+            Metrics.registerGauge("server.rooms", rooms::size);
+            Metrics.registerGauge("server.journal.pending", this::getJournalPendingCount);
+            Metrics.registerGauge("server.rate-limit.user-buckets", rateLimiter::getUserBucketsCount);
 
-            // перевірка існування з'єднань
-            new Thread(() -> {
-                while (!Thread.currentThread().isInterrupted() && active) {
-                    Message message = new Message();
-                    message.setType(Message.Type.NOTIFICATION);
-                    message.setStatus(Message.NotificationStatus.KEEPING_ALIVE);
-                    sendMessage(message);
-
-                    try {
-                        Thread.sleep(KEEP_ALIVE_PERIOD);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                    }
-                }
-            }).start();
+            // перевірка існування з'єднань: перевіряються лише неактивні
+            Message message = new Message();
+            message.setType(Message.Type.NOTIFICATION);
+            message.setStatus(Message.NotificationStatus.KEEPING_ALIVE);
+            keepAliveMessage = EncodedMessage.encode(message, CODEC);
+            keepAliveTimer = new HashedWheelTimer(KEEP_ALIVE_TICK, TimeUnit.MILLISECONDS, KEEP_ALIVE_WHEEL_SIZE);
+            keepAliveTimer.start("keep-alive-timer");
+
+            new Thread(this).start();
         }
     }
 
@@ -137,12 +434,31 @@ public class Server implements Runnable {
      */
     public void shutdown() throws IOException {
         if (active) {
-            serverSocket.close();
+            if (NIO_TRANSPORT) {
+                serverSocketChannel.close();
+            } else {
+                serverSocket.close();
+            }
 
+            handshakeExecutor.shutdownNow();
+            keepAliveTimer.stop();
+            authService.shutdown();
             for (ClientHandler client : clients) {
                 client.close();
             }
 
+            if (NIO_TRANSPORT) {
+                for (NioEventLoop eventLoop : eventLoops) {
+                    eventLoop.shutdown();
+                }
+            }
+            closeRooms();
+
+            Metrics.unregisterGauge("server.outbound-queue.depth");
+            Metrics.unregisterGauge("server.outbound-queue.max-depth");
+            Metrics.unregisterGauge("server.rooms");
+            Metrics.unregisterGauge("server.journal.pending");
+            Metrics.unregisterGauge("server.rate-limit.user-buckets");
             active = false;
         }
     }
@@ -156,33 +472,92 @@ public class Server implements Runnable {
         onConnectionsCountChangedCallback.onConnectionsCountChanged(newSize);
     }
 
+    private static void closeQuietly(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // не вдалося закрити з'єднання
+        }
+    }
+
+    private void handshake(final ClientConnection connection) throws IOException {
+        final ClientHandler client = new ClientHandler(connection, this, (message) -> {
+            if (Server.this.isActive()) {
+                Server.this.onMessageReceived();
+                onMessageReceivedCallback.onMessageReceived(message);
+            }
+        });
+        if (clients.add(client)) {
+            onConnectionsCountChanged(clients.size());
+        }
+        try {
+            client.start();
+        } catch (IOException | RuntimeException e) {
+            // обробник уже в реєстрі - його треба прибрати разом зі
+            // з'єднанням, інакше кількість підключень не зменшиться
+            client.abort();
+            throw e;
+        }
+        scheduleKeepAlive(client, TimeUnit.MILLISECONDS.toNanos(KEEP_ALIVE_IDLE_TIMEOUT));
+    }
+
+    private void scheduleKeepAlive(final ClientHandler client, final long delay) {
+        client.setKeepAliveTimeout(keepAliveTimer.schedule(() -> {
+            long nextDelay = client.checkAlive(TimeUnit.MILLISECONDS.toNanos(KEEP_ALIVE_IDLE_TIMEOUT),
+                    TimeUnit.MILLISECONDS.toNanos(KEEP_ALIVE_PING_TIMEOUT), keepAliveMessage);
+            if (nextDelay >= 0) {
+                scheduleKeepAlive(client, nextDelay);
+            }
+        }, delay, TimeUnit.NANOSECONDS));
+    }
+
+    private void submitHandshake(final Closeable rawConnection, final Callable<ClientConnection> connectionFactory) {
+        try {
+            handshakeExecutor.execute(() -> {
+                try {
+                    handshake(connectionFactory.call());
+                } catch (Exception e) {
+                    // не вдалося встановити з'єднання
+                    closeQuietly(rawConnection);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // сервер зупиняється
+            closeQuietly(rawConnection);
+        }
+    }
+
+    private void accept() throws IOException {
+        if (NIO_TRANSPORT) {
+            final SocketChannel channel = serverSocketChannel.accept();
+            final NioEventLoop eventLoop = eventLoops[nextEventLoop];
+            nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+            submitHandshake(channel, () -> new NioClientConnection(channel, eventLoop));
+        } else {
+            final Socket socket = serverSocket.accept();
+            submitHandshake(socket, () -> new SocketClientConnection(socket, CONNECTION_THREADS));
+        }
+    }
+
     /**
-     * Виконує основну логіку сервера в окремому потоці.
+     * Виконує основну логіку сервера в окремому потоці: приймає з'єднання
+     * пакетами, доки це дозволяє обмежувач частоти, а їх встановлення
+     * передає окремому виконавцю.
      */
     @Override
     public void run() {
-        Socket clientSocket;
-
         while (!Thread.currentThread().isInterrupted() && active) {
             try {
-                clientSocket = serverSocket.accept();
-                final ClientHandler client = new ClientHandler(clientSocket, this, (message) -> {
-                    if (Server.this.isActive()) {
-                        Server.this.onMessageReceived();
-                        onMessageReceivedCallback.onMessageReceived(message);
-                    }
-                });
-                clients.add(client);
-                onConnectionsCountChanged(clients.size());
-                new Thread(client).start();
-            } catch (IOException e) {
-                // клієнту не вдалося здійснити підключення
+                acceptLimiter.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             }
 
             try {
-                Thread.sleep(ACCEPTANCE_PERIOD);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+                accept();
+            } catch (IOException e) {
+                // клієнту не вдалося здійснити підключення
             }
         }
     }
@@ -197,116 +572,267 @@ public class Server implements Runnable {
             theOnlyClient.sendMessage(message);
         } catch (IOException e) {
             // не вдалося надіслати повідомлення - можливо, клієнт від'єднався
-            int previousSize = clients.size();
-            clients.remove(theOnlyClient);
-            int newSize = clients.size();
-            if (newSize != previousSize) {
-                onConnectionsCountChanged(newSize);
+            theOnlyClient.abort();
+        }
+    }
+
+    private EncodedMessage encode(final Message message) {
+        try {
+            return EncodedMessage.encode(message, CODEC);
+        } catch (IOException e) {
+            // повідомлення не вдалося закодувати - надсилати нічого
+            return null;
+        }
+    }
+
+    private Room openRoom(final String name) throws IOException {
+        Room room = new Room(name, ROOM_CONNECTIONS_LIMIT, CODEC, LAST_MESSAGES_LIMIT, HISTORY_REPLAY_LIMIT, HISTORY_PAGE_LIMIT);
+        room.open(JOURNAL_ENABLED ? new MessageJournal(Paths.get(JOURNAL_DIRECTORY, name), CODEC_NAME,
+                JOURNAL_SEGMENT_SIZE, JOURNAL_MAX_SEGMENTS, JOURNAL_FLUSH_INTERVAL, JOURNAL_QUEUE_CAPACITY,
+                JOURNAL_APPEND_TIMEOUT) : null);
+        rooms.put(name, room);
+        return room;
+    }
+
+    private List<String> listJournaledRooms() throws IOException {
+        List<String> names = new ArrayList<>();
+        Path directory = Paths.get(JOURNAL_DIRECTORY);
+        if (!JOURNAL_ENABLED || !Files.isDirectory(directory)) {
+            return names;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (ROOM_NAME_PATTERN.matcher(name).matches() && !name.equals(DEFAULT_ROOM)) {
+                    names.add(name);
+                }
             }
         }
+        Collections.sort(names);
+        return names;
+    }
+
+    private void closeRooms() {
+        for (Room room : rooms.values()) {
+            room.close();
+        }
+        rooms.clear();
     }
 
     /**
-     * Надсилає повідомлення всім клієнтам.
-     * @param message повідомлення
+     * Повертає кімнату за назвою, створюючи її за потреби.
+     * @param name назва кімнати (null або порожня - кімната за замовчуванням)
+     * @return кімната або null, якщо назва некоректна, кількість кімнат
+     *         досягла обмеження або журнал кімнати не вдалося відкрити
      */
-    public void sendMessage(final Message message) {
-        List<ClientHandler> invalidClients = new LinkedList<>();
-        int previousSize = clients.size();
-
-        if (!message.getType().equals(Message.Type.NOTIFICATION)) {
-            lastMessages.add(message);
+    private Room findOrCreateRoom(final String name) {
+        String roomName = name == null || name.isEmpty() ? DEFAULT_ROOM : name;
+        Room room = rooms.get(roomName);
+        if (room != null || !ROOM_NAME_PATTERN.matcher(roomName).matches()) {
+            return room;
         }
-        for (ClientHandler client : clients) {
-            try {
-                client.sendMessage(message);
-            } catch (IOException e) {
-                // не вдалося надіслати повідомлення - можливо, клієнт від'єднався
-                invalidClients.add(client);
+        synchronized (rooms) {
+            room = rooms.get(roomName);
+            if (room == null && active && rooms.size() < ROOMS_LIMIT) {
+                try {
+                    room = openRoom(roomName);
+                } catch (IOException e) {
+                    // журнал кімнати не вдалося відкрити - кімната недоступна
+                    return null;
+                }
             }
+            return room;
+        }
+    }
+
+    /**
+     * Переводить клієнта до кімнати: клієнт отримує підтвердження переходу
+     * (сповіщення JOIN), а потім - пропущені ним повідомлення кімнати або її
+     * історію. Якщо кімната заповнена або недоступна, клієнт залишається в
+     * поточній кімнаті та отримує сповіщення JOIN із причиною.
+     * @param client клієнт
+     * @param name назва кімнати (null або порожня - кімната за замовчуванням)
+     * @param lastSeenId номер останнього отриманого клієнтом повідомлення
+     *                   цієї кімнати (0 - клієнт приєднується вперше)
+     * @return чи перейшов клієнт до кімнати
+     */
+    public boolean joinRoom(final ClientHandler client, final String name, final long lastSeenId) {
+        Room current = client.getRoom();
+        Room room = findOrCreateRoom(name);
+        Message reply = new Message();
+        reply.setType(Message.Type.NOTIFICATION);
+        reply.setStatus(Message.NotificationStatus.JOIN);
+        if (room == null || !room.join(client)) {
+            Metrics.increment("server.rooms.join-rejected");
+            reply.setRoom(current != null ? current.getName() : null);
+            reply.setContent(room == null ? "Кімната недоступна" : "Кімната заповнена");
+            sendMessage(client, reply);
+            return false;
         }
 
-        clients.removeAll(invalidClients);
-        int newSize = clients.size();
-        if (newSize != previousSize) {
-            onConnectionsCountChanged(newSize);
+        if (current != null && current != room) {
+            current.leave(client);
+        }
+        client.setRoom(room);
+        if (!clients.contains(client)) {
+            // клієнт від'єднався паралельно - прибираємо його з кімнати
+            room.leave(client);
+            return false;
         }
+        reply.setRoom(room.getName());
+        sendMessage(client, reply);
+        room.sendCatchUp(client, lastSeenId);
+        return true;
     }
 
     /**
-     * Надсилає повідомлення всім клієнтам за винятком одного.
+     * Надсилає повідомлення всім клієнтам. Службове повідомлення кодується
+     * один раз і надсилається кожному клієнту, а звичайне повідомлення
+     * (від сервера) надсилається до кожної кімнати та потрапляє до її історії.
      * @param message повідомлення
-     * @param other клієнт-виняток
      */
-    public void sendMessage(final Message message, final ClientHandler other) {
-        List<ClientHandler> invalidClients = new LinkedList<>();
-        int previousSize = clients.size();
-
+    public void sendMessage(final Message message) {
         if (!message.getType().equals(Message.Type.NOTIFICATION)) {
-            lastMessages.add(message);
+            for (Room room : rooms.values()) {
+                // кожна кімната призначає повідомленню власний номер
+                room.sendMessage(new Message(message), null);
+            }
+            return;
+        }
+
+        EncodedMessage encoded = encode(message);
+        if (encoded == null) {
+            return;
         }
         for (ClientHandler client : clients) {
-            if (!client.equals(other)) {
-                try {
-                    client.sendMessage(message);
-                } catch (IOException e) {
-                    // не вдалося надіслати повідомлення - можливо, клієнт від'єднався
-                    invalidClients.add(client);
-                }
+            try {
+                client.sendMessage(encoded);
+            } catch (IOException e) {
+                // не вдалося надіслати повідомлення - можливо, клієнт від'єднався
+                client.abort();
             }
         }
+    }
 
-        clients.removeAll(invalidClients);
-        int newSize = clients.size();
-        if (newSize != previousSize) {
-            onConnectionsCountChanged(newSize);
+    /**
+     * Надсилає повідомлення клієнта іншим учасникам його кімнати.
+     * @param message повідомлення
+     * @param sender клієнт-відправник
+     */
+    public void sendMessage(final Message message, final ClientHandler sender) {
+        Room room = sender.getRoom();
+        if (room != null) {
+            room.sendMessage(message, sender);
         }
     }
 
     /**
-     * Надсилає останні повідомлення одному клієнту.
+     * Видаляє клієнта зі списку підключених.
      * @param client клієнт
+     * @return чи був клієнт видалений (false, якщо його вже не було у списку)
      */
-    public void sendLastMessages(final ClientHandler client) {
-        try {
-            for (Message message : lastMessages) {
-                client.sendMessage(message);
-            }
-        } catch (IOException e) {
-            clients.remove(client);
+    public boolean removeClient(final ClientHandler client) {
+        // клієнт видаляється з реєстру раніше, ніж з кімнати: паралельний
+        // перехід до кімнати побачить це та прибере клієнта сам
+        boolean removed = clients.remove(client);
+        Room room = client.getRoom();
+        if (room != null) {
+            room.leave(client);
+        }
+        if (removed) {
             onConnectionsCountChanged(clients.size());
         }
+        return removed;
     }
 
     /**
-     * Видаляє клієнта зі списку підключених.
+     * Пов'язує клієнта з іменем користувача, під яким він авторизується.
+     * @param client клієнт
+     * @param name ім'я користувача
+     */
+    void bindClientName(final ClientHandler client, final String name) {
+        clients.bindName(client, name);
+    }
+
+    /**
+     * Примусово відключає клієнта від сервера.
      * @param client клієнт
      */
-    public void removeClient(final ClientHandler client) {
-        clients.remove(client);
-        onConnectionsCountChanged(clients.size());
+    public void disconnectClient(final ClientHandler client) {
+        Message message = new Message();
+        message.setType(Message.Type.NOTIFICATION);
+        message.setStatus(Message.NotificationStatus.FORCE_CLOSE);
+        sendMessage(client, message);
+        client.close();
+        // клієнт, що не отримує кадри, не повинен утримувати з'єднання та
+        // потоки до нескінченності
+        keepAliveTimer.schedule(client::abort, DISCONNECT_GRACE_PERIOD, TimeUnit.MILLISECONDS);
     }
 
     /**
-     * Відключає клієнта за його іменем від сервера.
+     * Відключає від сервера всі сесії користувача з указаним іменем та
+     * відкликає його сесійні токени.
      * @param name ім'я
+     * @return кількість відключених сесій
      */
-    public void disconnectClientByName(final String name) {
-        ClientHandler client = null;
-        for (ClientHandler temp : clients) {
-            if (temp.getName().equals(name)) {
-                client = temp;
-                break;
-            }
+    public int disconnectClientByName(final String name) {
+        authService.revokeSessions(name);
+        int count = 0;
+        for (ClientHandler client : clients.findByName(name)) {
+            disconnectClient(client);
+            ++count;
         }
+        return count;
+    }
 
-        if (client != null) {
-            Message message = new Message();
-            message.setType(Message.Type.NOTIFICATION);
-            message.setStatus(Message.NotificationStatus.FORCE_CLOSE);
-            sendMessage(client, message);
-            client.close();
+    /**
+     * Надсилає повідомлення всім сесіям користувача з указаним іменем.
+     * Повідомлення кодується один раз і не потрапляє до історії.
+     * @param name ім'я
+     * @param message повідомлення
+     * @return кількість сесій, яким повідомлення було передане
+     */
+    public int sendMessageToUser(final String name, final Message message) {
+        EncodedMessage encoded = encode(message);
+        if (encoded == null) {
+            return 0;
         }
+
+        int count = 0;
+        for (ClientHandler client : clients.findByName(name)) {
+            try {
+                client.sendMessage(encoded);
+                ++count;
+            } catch (IOException e) {
+                // не вдалося надіслати повідомлення - можливо, клієнт від'єднався
+                client.abort();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Повертає сервіс авторизації клієнтів.
+     * @return сервіс авторизації
+     */
+    public AuthService getAuthService() {
+        return authService;
+    }
+
+    /**
+     * Повертає обмежувач частоти текстових повідомлень.
+     * @return обмежувач частоти
+     */
+    public MessageRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Повертає кодек, яким кодуються повідомлення для клієнтів.
+     * @return кодек повідомлень
+     */
+    public MessageCodec getCodec() {
+        return CODEC;
     }
 
     /**
@@ -338,6 +864,44 @@ public class Server implements Runnable {
         return active;
     }
 
+    /**
+     * Повертає сумарну кількість повідомлень, що очікують надіслання всім
+     * клієнтам.
+     * @return сумарна глибина черг вихідних повідомлень
+     */
+    public long getOutboundQueueDepth() {
+        long depth = 0;
+        for (ClientHandler client : clients) {
+            depth += client.getOutboundQueueDepth();
+        }
+        return depth;
+    }
+
+    /**
+     * Повертає найбільшу глибину черги вихідних повідомлень серед клієнтів.
+     * @return найбільша глибина черги вихідних повідомлень
+     */
+    public long getMaxOutboundQueueDepth() {
+        long maxDepth = 0;
+        for (ClientHandler client : clients) {
+            maxDepth = Math.max(maxDepth, client.getOutboundQueueDepth());
+        }
+        return maxDepth;
+    }
+
+    /**
+     * Повертає сумарну кількість записів журналів кімнат, що очікують запису
+     * у файл.
+     * @return кількість записів
+     */
+    public long getJournalPendingCount() {
+        long count = 0;
+        for (Room room : rooms.values()) {
+            count += room.getJournalPendingCount();
+        }
+        return count;
+    }
+
     /**
      * Повертає поточну кількість підключених клієнтів.
      * @return поточна кількість підключених клієнтів
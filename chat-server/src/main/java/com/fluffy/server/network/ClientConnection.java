@@ -0,0 +1,55 @@
+package com.fluffy.server.network;
+
+import com.fluffy.server.models.ClientHandler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Інтерфейс транспортного з'єднання із клієнтом. Приховує від обробника
+ * підключення спосіб обміну кадрами (блокуючі потоки або неблокуючі канали).
+ * @author Сивоконь Вадим
+ */
+public interface ClientConnection {
+    /**
+     * Починає отримання кадрів від клієнта та передачу їх обробнику.
+     * @param handler обробник підключення клієнта
+     * @throws IOException якщо не вдалося почати роботу із з'єднанням
+     */
+    void open(ClientHandler handler) throws IOException;
+
+    /**
+     * Надсилає клієнту кадр із вказаним вмістом. Буфер вмісту належить
+     * з'єднанню до завершення надіслання, тому для кожного отримувача
+     * потрібне окреме представлення спільних байтів.
+     * @param payload вміст кадру
+     * @throws IOException якщо сталася помилка під час надіслання
+     */
+    void write(ByteBuffer payload) throws IOException;
+
+    /**
+     * Закриває з'єднання після надіслання кадрів, що вже очікують у черзі.
+     * Повторний виклик не має ефекту.
+     */
+    void close();
+
+    /**
+     * Негайно закриває з'єднання, відкидаючи кадри, що очікують у черзі.
+     * Використовується, коли клієнт не встигає отримувати кадри, не
+     * відповідає або відключається примусово, - очікування на надіслання
+     * могло б тривати необмежено довго. Повторний виклик не має ефекту.
+     */
+    void abort();
+
+    /**
+     * Повертає логічне значення - чи є з'єднання відкритим.
+     * @return чи є з'єднання відкритим
+     */
+    boolean isOpen();
+
+    /**
+     * Повертає кількість кадрів, що очікують надіслання клієнту.
+     * @return глибина черги вихідних кадрів
+     */
+    int getOutboundQueueDepth();
+}
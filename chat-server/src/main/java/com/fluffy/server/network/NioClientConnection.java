@@ -0,0 +1,346 @@
+package com.fluffy.server.network;
+
+import com.fluffy.messaging.Frames;
+import com.fluffy.server.models.ClientHandler;
+import com.fluffy.server.util.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Клас неблокуючого з'єднання, що обслуговується циклом подій. Читання
+ * відбувається в потоці циклу. Кадр надсилається одразу в потоці, що його
+ * викликав, лише якщо перед ним нічого не очікує і попередній кадр був
+ * надісланий давніше за налаштовану затримку. Інакше кадр потрапляє в
+ * обмежену чергу, яку цикл подій дописує, коли канал готовий до запису,
+ * об'єднуючи кадри, що накопичилися, в один запис.
+ * @author Сивоконь Вадим
+ */
+public class NioClientConnection implements ClientConnection {
+    /**
+     * Канал клієнта.
+     */
+    private final SocketChannel channel;
+
+    /**
+     * Цикл подій, що обслуговує з'єднання.
+     */
+    private final NioEventLoop eventLoop;
+
+    /**
+     * Черга вихідних кадрів.
+     */
+    private final OutboundQueue outboundQueue;
+
+    /**
+     * Блокування запису в канал.
+     */
+    private final Object writeLock;
+
+    /**
+     * Максимальна затримка об'єднання записів (у наносекундах).
+     */
+    private static final long COALESCE_MAX_DELAY = TimeUnit.MICROSECONDS.toNanos(OutboundQueue.COALESCE_MAX_DELAY);
+
+    /**
+     * Кадри (заголовки та вміст), записані в канал не повністю.
+     */
+    private ByteBuffer[] inFlight;
+
+    /**
+     * Час останнього надіслання кадру в потоці, що його викликав.
+     */
+    private long lastDirectWrite;
+
+    /**
+     * Частково отриманий кадр (лише в потоці циклу).
+     */
+    private ByteBuffer partialFrame;
+
+    /**
+     * Ключ реєстрації в селекторі.
+     */
+    private volatile SelectionKey key;
+
+    /**
+     * Чи очікує з'єднання на готовність каналу до запису.
+     */
+    private boolean writeInterest;
+
+    /**
+     * Чи треба закрити канал, щойно всі кадри будуть записані.
+     */
+    private boolean closing;
+
+    /**
+     * Обробник підключення клієнта.
+     */
+    private ClientHandler handler;
+
+    /**
+     * Конструктор об'єкта з'єднання.
+     * @param channel канал клієнта
+     * @param eventLoop цикл подій
+     * @throws IOException якщо не вдалося перевести канал у неблокуючий режим
+     */
+    public NioClientConnection(final SocketChannel channel, final NioEventLoop eventLoop) throws IOException {
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+        this.outboundQueue = new OutboundQueue();
+        this.writeLock = new Object();
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void open(final ClientHandler handler) {
+        this.handler = handler;
+        eventLoop.register(this);
+    }
+
+    /**
+     * Реєструє канал у селекторі (виконується в потоці циклу).
+     * @param selector селектор
+     */
+    void register(final Selector selector) {
+        try {
+            synchronized (writeLock) {
+                int ops = writeInterest ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+                key = channel.register(selector, ops, this);
+            }
+        } catch (ClosedChannelException e) {
+            onClosed();
+        }
+    }
+
+    /**
+     * Надсилає кадр клієнту. Якщо перед ним є кадри, що очікують, або канал
+     * не приймає всі дані одразу - кадр дописує цикл подій.
+     * @param payload вміст кадру
+     * @throws IOException якщо з'єднання закрите, черга переповнена або
+     *         сталася помилка під час надіслання
+     */
+    @Override
+    public void write(final ByteBuffer payload) throws IOException {
+        synchronized (writeLock) {
+            if (!channel.isOpen() || closing) {
+                throw new ClosedChannelException();
+            }
+            long now = System.nanoTime();
+            // під час сплеску кадри відкладаються для циклу подій, який
+            // надішле їх разом
+            boolean burst = now - lastDirectWrite < COALESCE_MAX_DELAY;
+            lastDirectWrite = now;
+            if (!burst && inFlight == null && !writeInterest && outboundQueue.isEmpty()) {
+                ByteBuffer[] frame = new ByteBuffer[]{Frames.header(payload.remaining()), payload};
+                channel.write(frame);
+                Metrics.increment("server.write.batches");
+                Metrics.increment("server.write.frames");
+                if (payload.hasRemaining()) {
+                    inFlight = frame;
+                    requestWriteInterest();
+                }
+                return;
+            }
+        }
+
+        // жоден цикл подій не повинен очікувати: розсилка з одного циклу
+        // зупинила б усі його з'єднання через повільного клієнта іншого
+        if (!outboundQueue.offer(payload, !NioEventLoop.inAnyEventLoop())) {
+            closeChannel();
+            throw new IOException("Черга вихідних повідомлень переповнена або закрита");
+        }
+        synchronized (writeLock) {
+            requestWriteInterest();
+        }
+    }
+
+    private void requestWriteInterest() {
+        if (!writeInterest) {
+            writeInterest = true;
+            eventLoop.execute(this::updateInterestOps);
+        }
+    }
+
+    private void updateInterestOps() {
+        SelectionKey currentKey = key;
+        if (currentKey != null && currentKey.isValid()) {
+            synchronized (writeLock) {
+                currentKey.interestOps(writeInterest ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    /**
+     * Дописує кадри, що очікують, коли канал готовий до запису.
+     * @throws IOException якщо сталася помилка під час запису
+     */
+    void onWritable() throws IOException {
+        synchronized (writeLock) {
+            while (true) {
+                if (inFlight == null) {
+                    inFlight = nextBatch();
+                    if (inFlight == null) {
+                        break;
+                    }
+                }
+                channel.write(inFlight);
+                if (inFlight[inFlight.length - 1].hasRemaining()) {
+                    return;
+                }
+                inFlight = null;
+            }
+            writeInterest = false;
+            if (closing) {
+                closeChannel();
+            } else {
+                updateInterestOps();
+            }
+        }
+    }
+
+    private ByteBuffer[] nextBatch() {
+        List<ByteBuffer> payloads = new ArrayList<>();
+        int frames = outboundQueue.drainTo(payloads, OutboundQueue.COALESCE_MAX_BYTES);
+        if (frames == 0) {
+            return null;
+        }
+        ByteBuffer[] batch = new ByteBuffer[frames * 2];
+        for (int i = 0; i < frames; i++) {
+            ByteBuffer payload = payloads.get(i);
+            batch[i * 2] = Frames.header(payload.remaining());
+            batch[i * 2 + 1] = payload;
+        }
+        Metrics.increment("server.write.batches");
+        Metrics.add("server.write.frames", frames);
+        return batch;
+    }
+
+    /**
+     * Читає доступні дані з каналу та передає обробнику всі повністю
+     * отримані кадри.
+     * @param readBuffer спільний буфер циклу подій
+     * @throws IOException якщо сталася помилка під час читання або канал
+     *         закритий клієнтом
+     */
+    void onReadable(final ByteBuffer readBuffer) throws IOException {
+        readBuffer.clear();
+        if (channel.read(readBuffer) < 0) {
+            throw new ClosedChannelException();
+        }
+        readBuffer.flip();
+
+        if (partialFrame == null) {
+            dispatchFrames(readBuffer);
+            if (readBuffer.hasRemaining()) {
+                partialFrame = ByteBuffer.allocate(Math.max(readBuffer.remaining(), expectedFrameSize(readBuffer)));
+                partialFrame.put(readBuffer);
+            }
+        } else {
+            if (partialFrame.remaining() < readBuffer.remaining()) {
+                ByteBuffer grown = ByteBuffer.allocate(partialFrame.position() + readBuffer.remaining());
+                partialFrame.flip();
+                grown.put(partialFrame);
+                partialFrame = grown;
+            }
+            partialFrame.put(readBuffer);
+            partialFrame.flip();
+            dispatchFrames(partialFrame);
+            if (partialFrame.hasRemaining()) {
+                ByteBuffer rest = ByteBuffer.allocate(Math.max(partialFrame.remaining(), expectedFrameSize(partialFrame)));
+                rest.put(partialFrame);
+                partialFrame = rest;
+            } else {
+                partialFrame = null;
+            }
+        }
+    }
+
+    private static int expectedFrameSize(final ByteBuffer buffer) {
+        if (buffer.remaining() < Frames.HEADER_SIZE) {
+            return Frames.HEADER_SIZE;
+        }
+        return Frames.HEADER_SIZE + buffer.getInt(buffer.position());
+    }
+
+    private void dispatchFrames(final ByteBuffer buffer) throws IOException {
+        while (buffer.remaining() >= Frames.HEADER_SIZE) {
+            int length = buffer.getInt(buffer.position());
+            Frames.checkLength(length);
+            if (buffer.remaining() < Frames.HEADER_SIZE + length) {
+                return;
+            }
+            buffer.position(buffer.position() + Frames.HEADER_SIZE);
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            handler.onFrameReceived(payload, 0, length);
+        }
+    }
+
+    /**
+     * Обробляє закриття з'єднання, виявлене циклом подій.
+     */
+    void onClosed() {
+        closeChannel();
+        if (handler != null) {
+            handler.close();
+        }
+    }
+
+    /**
+     * Закриває з'єднання після надіслання кадрів, що вже очікують у черзі.
+     */
+    @Override
+    public void close() {
+        synchronized (writeLock) {
+            closing = true;
+            outboundQueue.close();
+            if (inFlight == null && !writeInterest && outboundQueue.isEmpty()) {
+                closeChannel();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void abort() {
+        closeChannel();
+    }
+
+    private void closeChannel() {
+        outboundQueue.close();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // не вдалося завершити з'єднання
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getOutboundQueueDepth() {
+        return outboundQueue.size();
+    }
+}
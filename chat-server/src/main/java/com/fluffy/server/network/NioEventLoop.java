@@ -0,0 +1,169 @@
+package com.fluffy.server.network;
+
+import com.fluffy.server.util.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Клас циклу подій, що обслуговує неблокуючі з'єднання клієнтів за допомогою
+ * одного селектора в окремому потоці. Невелика кількість таких циклів може
+ * обслуговувати велику кількість підключень.
+ * @author Сивоконь Вадим
+ */
+public class NioEventLoop implements Runnable {
+    /**
+     * Розмір спільного буфера для читання даних з каналів.
+     */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Ознака потоку будь-якого циклу подій.
+     */
+    private static final ThreadLocal<Boolean> EVENT_LOOP_THREAD = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    /**
+     * Селектор каналів.
+     */
+    private final Selector selector;
+
+    /**
+     * Задачі, які треба виконати в потоці циклу.
+     */
+    private final Queue<Runnable> tasks;
+
+    /**
+     * Спільний для всіх з'єднань циклу буфер для читання.
+     */
+    private final ByteBuffer readBuffer;
+
+    /**
+     * Стан циклу.
+     */
+    private volatile boolean active;
+
+    /**
+     * Конструктор об'єкта циклу подій.
+     * @throws IOException якщо не вдалося відкрити селектор
+     */
+    public NioEventLoop() throws IOException {
+        selector = Selector.open();
+        tasks = new ConcurrentLinkedQueue<>();
+        readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    }
+
+    /**
+     * Запускає цикл в окремому потоці.
+     * @param name ім'я потоку
+     */
+    public void start(final String name) {
+        active = true;
+        new Thread(this, name).start();
+    }
+
+    /**
+     * Зупиняє цикл та закриває всі його з'єднання.
+     */
+    public void shutdown() {
+        active = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Повертає логічне значення - чи виконується поточний код у потоці
+     * будь-якого циклу подій. Такий потік не повинен блокуватися, інакше
+     * зупиняться всі з'єднання його циклу.
+     * @return чи є поточний потік потоком циклу подій
+     */
+    public static boolean inAnyEventLoop() {
+        return EVENT_LOOP_THREAD.get();
+    }
+
+    /**
+     * Виконує задачу в потоці циклу.
+     * @param task задача
+     */
+    public void execute(final Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Реєструє з'єднання в селекторі циклу.
+     * @param connection з'єднання
+     */
+    void register(final NioClientConnection connection) {
+        execute(() -> connection.register(selector));
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Metrics.increment("server.nio.task-errors");
+            }
+        }
+    }
+
+    private void processKey(final SelectionKey key) {
+        NioClientConnection connection = (NioClientConnection) key.attachment();
+        try {
+            if (key.isReadable()) {
+                connection.onReadable(readBuffer);
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.onWritable();
+            }
+        } catch (IOException | CancelledKeyException e) {
+            // клієнт від'єднався або надіслав некоректні дані
+            connection.onClosed();
+        } catch (RuntimeException e) {
+            // помилка обробки даних одного клієнта не повинна зупиняти цикл,
+            // що обслуговує всі інші з'єднання
+            Metrics.increment("server.nio.handler-errors");
+            connection.onClosed();
+        }
+    }
+
+    /**
+     * Виконує основну логіку циклу подій в окремому потоці.
+     */
+    @Override
+    public void run() {
+        EVENT_LOOP_THREAD.set(Boolean.TRUE);
+        while (!Thread.currentThread().isInterrupted() && active) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                break;
+            }
+            runTasks();
+
+            Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                if (key.isValid()) {
+                    processKey(key);
+                }
+            }
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            ((NioClientConnection) key.attachment()).onClosed();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // не вдалося закрити селектор
+        }
+    }
+}
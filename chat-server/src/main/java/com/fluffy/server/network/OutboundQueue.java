@@ -0,0 +1,268 @@
+package com.fluffy.server.network;
+
+import com.fluffy.messaging.Frames;
+import com.fluffy.server.util.Metrics;
+import com.fluffy.util.Environment;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Клас обмеженої черги вихідних повідомлень одного клієнта. Повільний
+ * клієнт не затримує надіслання іншим: у разі переповнення черги
+ * застосовується налаштована політика {@link OverflowPolicy}.
+ * @author Сивоконь Вадим
+ */
+public class OutboundQueue {
+    /**
+     * Максимальна кількість повідомлень у черзі.
+     */
+    private static final int CAPACITY = Integer.parseInt(Environment.getProperty("server.outbound-queue.capacity"));
+
+    /**
+     * Політика на випадок переповнення черги.
+     */
+    private static final OverflowPolicy OVERFLOW_POLICY = OverflowPolicy.valueOf(Environment.getProperty("server.outbound-queue.overflow-policy"));
+
+    /**
+     * Максимальний час (у мілісекундах) очікування на вільне місце для
+     * політики {@link OverflowPolicy#BLOCK}.
+     */
+    private static final long BLOCK_TIMEOUT = Long.parseLong(Environment.getProperty("server.outbound-queue.block-timeout"));
+
+    /**
+     * Максимальна затримка (у мікросекундах), на яку запис може бути
+     * відкладений, щоб об'єднати його з наступними кадрами.
+     */
+    static final long COALESCE_MAX_DELAY = Long.parseLong(Environment.getProperty("server.write-coalescing.max-delay"));
+
+    /**
+     * Максимальний розмір (у байтах) кадрів, що об'єднуються в один запис.
+     */
+    static final int COALESCE_MAX_BYTES = Integer.parseInt(Environment.getProperty("server.write-coalescing.max-bytes"));
+
+    /**
+     * Повідомлення, що очікують надіслання.
+     */
+    private final Deque<ByteBuffer> payloads;
+
+    /**
+     * Блокування черги.
+     */
+    private final ReentrantLock lock;
+
+    /**
+     * Умова появи повідомлення в черзі.
+     */
+    private final Condition notEmpty;
+
+    /**
+     * Умова появи вільного місця в черзі.
+     */
+    private final Condition notFull;
+
+    /**
+     * Чи закрита черга для нових повідомлень.
+     */
+    private boolean closed;
+
+    /**
+     * Конструктор об'єкта черги.
+     */
+    public OutboundQueue() {
+        payloads = new ArrayDeque<>();
+        lock = new ReentrantLock();
+        notEmpty = lock.newCondition();
+        notFull = lock.newCondition();
+    }
+
+    /**
+     * Додає повідомлення в кінець черги з урахуванням політики переповнення.
+     * @param payload вміст кадру
+     * @param mayBlock чи може поточний потік очікувати на вільне місце (якщо
+     *        ні - політика {@link OverflowPolicy#BLOCK} діє як
+     *        {@link OverflowPolicy#DISCONNECT})
+     * @return false, якщо клієнта треба відключити
+     */
+    public boolean offer(final ByteBuffer payload, final boolean mayBlock) {
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            if (payloads.size() >= CAPACITY) {
+                switch (OVERFLOW_POLICY) {
+                    case DROP_OLDEST:
+                        payloads.pollFirst();
+                        Metrics.increment("server.outbound-queue.dropped");
+                        break;
+                    case BLOCK:
+                        if (mayBlock && awaitNotFull()) {
+                            break;
+                        }
+                        Metrics.increment("server.outbound-queue.disconnected");
+                        return false;
+                    case DISCONNECT:
+                    default:
+                        Metrics.increment("server.outbound-queue.disconnected");
+                        return false;
+                }
+            }
+            payloads.addLast(payload);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean awaitNotFull() {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(BLOCK_TIMEOUT);
+        try {
+            while (payloads.size() >= CAPACITY && !closed) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !closed;
+    }
+
+    /**
+     * Забирає повідомлення з початку черги без очікування.
+     * @return вміст кадру або null, якщо черга порожня
+     */
+    public ByteBuffer poll() {
+        lock.lock();
+        try {
+            ByteBuffer payload = payloads.pollFirst();
+            if (payload != null) {
+                notFull.signal();
+            }
+            return payload;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Забирає повідомлення з початку черги, очікуючи на його появу не довше
+     * за указаний час.
+     * @param nanos максимальний час очікування (у наносекундах)
+     * @return вміст кадру або null, якщо час вичерпано або черга закрита та
+     *         порожня
+     * @throws InterruptedException якщо очікування було перерване
+     */
+    public ByteBuffer poll(final long nanos) throws InterruptedException {
+        lock.lock();
+        try {
+            long remaining = nanos;
+            while (payloads.isEmpty() && !closed && remaining > 0) {
+                remaining = notEmpty.awaitNanos(remaining);
+            }
+            ByteBuffer payload = payloads.pollFirst();
+            if (payload != null) {
+                notFull.signal();
+            }
+            return payload;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Забирає з початку черги повідомлення, загальний розмір яких (разом із
+     * заголовками кадрів) не перевищує указаного, але щонайменше одне.
+     * @param batch список, до якого додаються повідомлення
+     * @param maxBytes максимальний розмір
+     * @return кількість забраних повідомлень
+     */
+    public int drainTo(final List<ByteBuffer> batch, final int maxBytes) {
+        lock.lock();
+        try {
+            int count = 0;
+            int bytes = 0;
+            ByteBuffer payload;
+            while ((payload = payloads.peekFirst()) != null
+                    && (count == 0 || bytes + Frames.HEADER_SIZE + payload.remaining() <= maxBytes)) {
+                payloads.pollFirst();
+                batch.add(payload);
+                bytes += Frames.HEADER_SIZE + payload.remaining();
+                count++;
+            }
+            if (count > 0) {
+                notFull.signalAll();
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Забирає повідомлення з початку черги, очікуючи на його появу. Після
+     * закриття черги повертає повідомлення, що залишилися, а потім - null.
+     * @return вміст кадру або null, якщо черга закрита та порожня
+     * @throws InterruptedException якщо очікування було перерване
+     */
+    public ByteBuffer take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (payloads.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            ByteBuffer payload = payloads.pollFirst();
+            if (payload != null) {
+                notFull.signal();
+            }
+            return payload;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Закриває чергу для нових повідомлень. Повідомлення, що вже в черзі,
+     * можна забрати.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Повертає логічне значення - чи є черга порожньою.
+     * @return чи є черга порожньою
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Повертає поточну кількість повідомлень у черзі.
+     * @return кількість повідомлень
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return payloads.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
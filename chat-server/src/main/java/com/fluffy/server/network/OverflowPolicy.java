@@ -0,0 +1,23 @@
+package com.fluffy.server.network;
+
+/**
+ * Можливі дії на випадок переповнення черги вихідних повідомлень клієнта.
+ * @author Сивоконь Вадим
+ */
+public enum OverflowPolicy {
+    /**
+     * Видалити найстаріше повідомлення з черги.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Відключити повільного клієнта.
+     */
+    DISCONNECT,
+
+    /**
+     * Очікувати на вільне місце в черзі (обмежений час, після чого клієнт
+     * відключається).
+     */
+    BLOCK,
+}
@@ -0,0 +1,196 @@
+package com.fluffy.server.network;
+
+import com.fluffy.messaging.Frames;
+import com.fluffy.server.models.ClientHandler;
+import com.fluffy.server.util.Metrics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Клас з'єднання на основі блокуючого сокета. Кадри від клієнта читаються
+ * в окремому потоці, який блокується до отримання наступного кадру, а
+ * вихідні кадри записуються з обмеженої черги окремим потоком. Кадри, що
+ * накопичилися в черзі, виштовхуються в сокет одним записом; під час сплеску
+ * повідомлень потік запису також очікує на наступні кадри, але не довше за
+ * налаштовану затримку.
+ * @author Сивоконь Вадим
+ */
+public class SocketClientConnection implements ClientConnection, Runnable {
+    /**
+     * Сокет клієнта.
+     */
+    private final Socket clientSocket;
+
+    /**
+     * Потік для отримання кадрів від клієнта.
+     */
+    private final DataInputStream dataInputStream;
+
+    /**
+     * Потік для надіслання кадрів клієнту.
+     */
+    private final DataOutputStream dataOutputStream;
+
+    /**
+     * Черга вихідних кадрів.
+     */
+    private final OutboundQueue outboundQueue;
+
+    /**
+     * Обробник підключення клієнта.
+     */
+    private ClientHandler handler;
+
+    /**
+     * Фабрика потоків читання та запису.
+     */
+    private final ThreadFactory threadFactory;
+
+    /**
+     * Конструктор об'єкта з'єднання.
+     * @param clientSocket сокет клієнта
+     * @param threadFactory фабрика потоків читання та запису
+     * @throws IOException якщо сталася помилка під час роботи із I/O-потоками
+     */
+    public SocketClientConnection(final Socket clientSocket, final ThreadFactory threadFactory) throws IOException {
+        this.clientSocket = clientSocket;
+        this.threadFactory = threadFactory;
+        clientSocket.setTcpNoDelay(true);
+        this.dataOutputStream = new DataOutputStream(new BufferedOutputStream(clientSocket.getOutputStream(),
+                OutboundQueue.COALESCE_MAX_BYTES));
+        this.dataInputStream = new DataInputStream(new BufferedInputStream(clientSocket.getInputStream()));
+        this.outboundQueue = new OutboundQueue();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void open(final ClientHandler handler) {
+        this.handler = handler;
+        threadFactory.newThread(this).start();
+        threadFactory.newThread(this::writeLoop).start();
+    }
+
+    /**
+     * Додає кадр у чергу вихідних кадрів клієнта.
+     * @param payload вміст кадру
+     * @throws IOException якщо з'єднання закрите або черга переповнена
+     */
+    @Override
+    public void write(final ByteBuffer payload) throws IOException {
+        if (!outboundQueue.offer(payload, true)) {
+            // потік запису може бути заблокований повільним клієнтом, тому
+            // закривається сам сокет
+            closeSocket();
+            throw new IOException("Черга вихідних повідомлень переповнена або закрита");
+        }
+    }
+
+    /**
+     * Закриває з'єднання після надіслання кадрів, що вже є в черзі.
+     */
+    @Override
+    public void close() {
+        outboundQueue.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void abort() {
+        closeSocket();
+    }
+
+    private void closeSocket() {
+        outboundQueue.close();
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            // не вдалося завершити з'єднання
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOpen() {
+        return !clientSocket.isClosed();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getOutboundQueueDepth() {
+        return outboundQueue.size();
+    }
+
+    private void writeLoop() {
+        long maxDelay = TimeUnit.MICROSECONDS.toNanos(OutboundQueue.COALESCE_MAX_DELAY);
+        // чи було в попередньому записі кілька кадрів - лише тоді є сенс
+        // очікувати на наступні, поодинокі повідомлення не затримуються
+        boolean burst = false;
+        try {
+            ByteBuffer payload;
+            while ((payload = outboundQueue.take()) != null) {
+                long deadline = System.nanoTime() + maxDelay;
+                int bytes = Frames.append(dataOutputStream, payload);
+                int frames = 1;
+                while (bytes < OutboundQueue.COALESCE_MAX_BYTES) {
+                    payload = outboundQueue.poll();
+                    if (payload == null && burst) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining > 0) {
+                            payload = outboundQueue.poll(remaining);
+                        }
+                    }
+                    if (payload == null) {
+                        break;
+                    }
+                    bytes += Frames.append(dataOutputStream, payload);
+                    frames++;
+                }
+                dataOutputStream.flush();
+                burst = frames > 1;
+                Metrics.increment("server.write.batches");
+                Metrics.add("server.write.frames", frames);
+            }
+        } catch (IOException e) {
+            // клієнт від'єднався
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeSocket();
+    }
+
+    /**
+     * Читає кадри від клієнта в окремому потоці.
+     */
+    @Override
+    public void run() {
+        // слухаємо поточного клієнта: читання блокується до отримання кадру
+        while (!Thread.currentThread().isInterrupted() && !clientSocket.isClosed()) {
+            byte[] payload;
+            try {
+                payload = Frames.read(dataInputStream);
+            } catch (IOException e) {
+                // клієнт від'єднався або з'єднання було закрите
+                break;
+            }
+            handler.onFrameReceived(payload, 0, payload.length);
+        }
+        closeSocket();
+        handler.close();
+    }
+}
@@ -0,0 +1,211 @@
+package com.fluffy.server.services;
+
+import com.fluffy.server.exceptions.DBConnectionException;
+import com.fluffy.server.exceptions.PersistException;
+import com.fluffy.server.models.User;
+import com.fluffy.server.util.Metrics;
+import com.fluffy.util.ApplicationContext;
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Клас сервісу для авторизації клієнтів. Перевірка пароля (BCrypt) навмисно
+ * повільна, тому виконується окремим пулом потоків обмеженого розміру з
+ * обмеженою чергою: сплеск авторизацій не забирає процесорний час в обробки
+ * повідомлень, а запити, що не вміщаються в чергу або надто довго в ній
+ * очікують, відхиляються. Нещодавні успішні перевірки кешуються, тому
+ * повторне підключення з тим самим паролем не потребує BCrypt, а клієнт із
+ * дійсним сесійним токеном авторизується одразу, без пулу та бази даних.
+ * @author Сивоконь Вадим
+ */
+public class AuthService {
+    /**
+     * Результат авторизації.
+     */
+    public enum AuthResult {
+        /**
+         * Ім'я та пароль правильні.
+         */
+        AUTHENTICATED,
+
+        /**
+         * Ім'я або пароль неправильні.
+         */
+        REJECTED,
+
+        /**
+         * Авторизацію не вдалося виконати (сервіс перевантажений або
+         * недоступна база даних).
+         */
+        UNAVAILABLE
+    }
+
+    /**
+     * Функціональний інтерфейс для реалізацій функцій зворотного виклику на
+     * подію завершення авторизації.
+     */
+    public interface OnAuthCompletedCallback {
+        /**
+         * Функція зворотного виклику.
+         * @param result результат авторизації
+         */
+        void onAuthCompleted(AuthResult result);
+    }
+
+    /**
+     * Сервіс для отримання даних про користувачів.
+     */
+    private final UserService userService;
+
+    /**
+     * Кеш успішних перевірок пароля.
+     */
+    private final VerifiedCredentialsCache verifiedCredentials;
+
+    /**
+     * Сесійні токени.
+     */
+    private final SessionTokens sessionTokens;
+
+    /**
+     * Виконавець перевірок.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Максимальний час очікування запиту в черзі (у наносекундах).
+     */
+    private final long maxQueueTime;
+
+    /**
+     * Конструктор об'єкта сервісу.
+     * @param threads кількість потоків перевірки
+     * @param queueCapacity місткість черги запитів
+     * @param maxQueueTime максимальний час очікування запиту в черзі (у
+     *        мілісекундах)
+     * @param verifiedCredentials кеш успішних перевірок пароля
+     * @param sessionTokens сесійні токени
+     */
+    public AuthService(final int threads, final int queueCapacity, final long maxQueueTime,
+                       final VerifiedCredentialsCache verifiedCredentials, final SessionTokens sessionTokens) {
+        this.userService = (UserService) ApplicationContext.lookup("userService");
+        this.verifiedCredentials = verifiedCredentials;
+        this.sessionTokens = sessionTokens;
+        this.maxQueueTime = TimeUnit.MILLISECONDS.toNanos(maxQueueTime);
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), task -> {
+                    Thread thread = new Thread(task, "auth-worker-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        Metrics.registerGauge("server.auth.queue-depth", () -> executor.getQueue().size());
+        Metrics.registerGauge("server.auth.active", executor::getActiveCount);
+    }
+
+    /**
+     * Авторизує клієнта. Дійсний сесійний токен перевіряється одразу в
+     * потоці виклику; інакше запит на перевірку пароля ставиться в чергу, а
+     * результат передається функції зворотного виклику в потоці перевірки.
+     * @param name ім'я користувача
+     * @param password пароль
+     * @param token сесійний токен або null
+     * @param callback обробник завершення авторизації
+     * @return чи був запит прийнятий (false, якщо черга заповнена)
+     */
+    public boolean authenticate(final String name, final String password, final String token,
+                                final OnAuthCompletedCallback callback) {
+        if (token != null) {
+            if (sessionTokens.verify(name, token)) {
+                Metrics.increment("server.auth.token-resumed");
+                Metrics.increment("server.auth." + AuthResult.AUTHENTICATED.name().toLowerCase());
+                callback.onAuthCompleted(AuthResult.AUTHENTICATED);
+                return true;
+            }
+            // недійсний токен - перевіряємо пароль
+            Metrics.increment("server.auth.token-rejected");
+        }
+
+        final long submitTime = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                AuthResult result;
+                if (System.nanoTime() - submitTime > maxQueueTime) {
+                    // клієнт надто довго чекав - перевірка вже неактуальна
+                    Metrics.increment("server.auth.expired");
+                    result = AuthResult.UNAVAILABLE;
+                } else {
+                    result = check(name, password);
+                    Metrics.recordLatency("server.auth.latency", System.nanoTime() - submitTime, TimeUnit.NANOSECONDS);
+                }
+                Metrics.increment("server.auth." + result.name().toLowerCase());
+                callback.onAuthCompleted(result);
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            Metrics.increment("server.auth.overloaded");
+            return false;
+        }
+    }
+
+    private AuthResult check(final String name, final String password) {
+        if (name == null || password == null) {
+            return AuthResult.REJECTED;
+        }
+
+        try {
+            User user = userService.findByName(name);
+            if (user == null) {
+                return AuthResult.REJECTED;
+            }
+            if (verifiedCredentials.matches(name, user.getPassword(), password)) {
+                return AuthResult.AUTHENTICATED;
+            }
+            if (BCrypt.checkpw(password, user.getPassword())) {
+                verifiedCredentials.put(name, user.getPassword(), password);
+                return AuthResult.AUTHENTICATED;
+            }
+            return AuthResult.REJECTED;
+        } catch (DBConnectionException | PersistException e) {
+            return AuthResult.UNAVAILABLE;
+        } catch (IllegalArgumentException e) {
+            // збережений хеш пароля пошкоджений
+            return AuthResult.REJECTED;
+        }
+    }
+
+    /**
+     * Видає сесійний токен користувачу, який успішно авторизувався.
+     * @param name ім'я користувача
+     * @return сесійний токен
+     */
+    public String issueSessionToken(final String name) {
+        return sessionTokens.issue(name);
+    }
+
+    /**
+     * Відкликає сесійні токени користувача та забуває його успішні перевірки
+     * пароля, тож наступна авторизація потребуватиме повної перевірки.
+     * @param name ім'я користувача
+     */
+    public void revokeSessions(final String name) {
+        sessionTokens.revoke(name);
+        verifiedCredentials.invalidate(name);
+    }
+
+    /**
+     * Зупиняє потоки перевірки. Запити, що очікують у черзі, не виконуються.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        Metrics.unregisterGauge("server.auth.queue-depth");
+        Metrics.unregisterGauge("server.auth.active");
+    }
+}
@@ -0,0 +1,153 @@
+package com.fluffy.server.services;
+
+import com.fluffy.server.util.Metrics;
+import com.fluffy.server.util.TokenBucket;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Клас обмежувача частоти текстових повідомлень (а також запитів приєднання
+ * та історії) від клієнтів. Повідомлення розсилається, а запит виконується,
+ * лише якщо є токен у відрі з'єднання, у відрі користувача (спільному для
+ * всіх його з'єднань) та в загальному відрі сервера, тому один клієнт не
+ * може перевантажити розсилку, журнал та інтерфейс сервера.
+ * Відкинуті повідомлення враховуються в метриках server.rate-limit.*.
+ * @author Сивоконь Вадим
+ */
+public class MessageRateLimiter {
+    /**
+     * Результат перевірки повідомлення.
+     */
+    public enum Result {
+        /**
+         * Повідомлення можна розсилати.
+         */
+        ALLOWED,
+
+        /**
+         * Перевищено частоту повідомлень з'єднання.
+         */
+        SESSION_LIMITED,
+
+        /**
+         * Перевищено частоту повідомлень користувача.
+         */
+        USER_LIMITED,
+
+        /**
+         * Перевищено загальну частоту повідомлень сервера.
+         */
+        GLOBAL_LIMITED
+    }
+
+    /**
+     * Кількість відер користувачів, після якої заповнені відра видаляються.
+     */
+    private static final int USER_BUCKETS_CLEANUP_THRESHOLD = 1024;
+
+    /**
+     * Частота повідомлень з'єднання (повідомлень на секунду).
+     */
+    private final double sessionRate;
+
+    /**
+     * Розмір сплеску повідомлень з'єднання.
+     */
+    private final double sessionBurst;
+
+    /**
+     * Частота повідомлень користувача (повідомлень на секунду).
+     */
+    private final double userRate;
+
+    /**
+     * Розмір сплеску повідомлень користувача.
+     */
+    private final double userBurst;
+
+    /**
+     * Відра користувачів за іменем.
+     */
+    private final ConcurrentMap<String, TokenBucket> userBuckets;
+
+    /**
+     * Загальне відро сервера.
+     */
+    private final TokenBucket globalBucket;
+
+    /**
+     * Конструктор об'єкта обмежувача.
+     * @param sessionRate частота повідомлень з'єднання (на секунду)
+     * @param sessionBurst розмір сплеску повідомлень з'єднання
+     * @param userRate частота повідомлень користувача (на секунду)
+     * @param userBurst розмір сплеску повідомлень користувача
+     * @param globalRate загальна частота повідомлень сервера (на секунду)
+     * @param globalBurst розмір загального сплеску повідомлень
+     */
+    public MessageRateLimiter(final double sessionRate, final double sessionBurst,
+                              final double userRate, final double userBurst,
+                              final double globalRate, final double globalBurst) {
+        this.sessionRate = sessionRate;
+        this.sessionBurst = sessionBurst;
+        this.userRate = userRate;
+        this.userBurst = userBurst;
+        this.userBuckets = new ConcurrentHashMap<>();
+        this.globalBucket = new TokenBucket(globalRate, globalBurst);
+    }
+
+    /**
+     * Створює відро для нового з'єднання.
+     * @return відро з'єднання
+     */
+    public TokenBucket newSessionBucket() {
+        return new TokenBucket(sessionRate, sessionBurst);
+    }
+
+    /**
+     * Перевіряє, чи можна розсилати повідомлення, та забирає токени.
+     * Перевірки виконуються від найвужчої до найширшої, тому клієнт, що
+     * перевищив власну частоту, не витрачає токени користувача та сервера.
+     * @param sessionBucket відро з'єднання
+     * @param name ім'я користувача
+     * @return результат перевірки
+     */
+    public Result tryAcquire(final TokenBucket sessionBucket, final String name) {
+        if (!sessionBucket.tryAcquire()) {
+            Metrics.increment("server.rate-limit.session");
+            return Result.SESSION_LIMITED;
+        }
+        if (!userBucket(name).tryAcquire()) {
+            Metrics.increment("server.rate-limit.user");
+            return Result.USER_LIMITED;
+        }
+        if (!globalBucket.tryAcquire()) {
+            Metrics.increment("server.rate-limit.global");
+            return Result.GLOBAL_LIMITED;
+        }
+        return Result.ALLOWED;
+    }
+
+    private TokenBucket userBucket(final String name) {
+        TokenBucket bucket = userBuckets.get(name);
+        if (bucket == null) {
+            if (userBuckets.size() > USER_BUCKETS_CLEANUP_THRESHOLD) {
+                // заповнене відро не відрізняється від нового, тому його
+                // видалення не послаблює обмеження
+                for (String key : userBuckets.keySet()) {
+                    userBuckets.computeIfPresent(key, (k, b) -> b.isFull() ? null : b);
+                }
+            }
+            bucket = userBuckets.computeIfAbsent(name, k -> new TokenBucket(userRate, userBurst));
+        }
+        return bucket;
+    }
+
+    /**
+     * Повертає кількість відер користувачів.
+     * @return кількість відер
+     */
+    public int getUserBucketsCount() {
+        return userBuckets.size();
+    }
+}
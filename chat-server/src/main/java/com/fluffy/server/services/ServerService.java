@@ -8,8 +8,10 @@ import com.fluffy.messaging.Message;
 import com.fluffy.server.exceptions.ServerShutdownException;
 import com.fluffy.server.exceptions.ServerStartupException;
 import com.fluffy.server.models.Server;
+import com.fluffy.server.util.Metrics;
 
 import java.io.IOException;
+import java.util.Map;
 
 /**
  * Клас сервісу для роботи із сервером.
@@ -129,11 +131,15 @@ public class ServerService {
     }
 
     /**
-     * Відключає клієнта від сервера за іменем.
+     * Відключає від сервера всі сесії користувача за іменем.
      * @param name ім'я
+     * @return кількість відключених сесій
      */
-    public void disconnectClientByName(final String name) {
-        server.disconnectClientByName(name);
+    public int disconnectClientByName(final String name) {
+        if (isServerActive()) {
+            return server.disconnectClientByName(name);
+        }
+        return 0;
     }
 
     /**
@@ -149,6 +155,21 @@ public class ServerService {
         }
     }
 
+    /**
+     * Надсилає повідомлення лише одному користувачу (усім його сесіям).
+     * @param name ім'я користувача
+     * @param message повідомлення
+     * @return чи було повідомлення передане хоча б одній сесії
+     */
+    public boolean sendMessageToUser(final String name, final Message message) {
+        if (isServerActive() && server.sendMessageToUser(name, message) > 0) {
+            onMessageSend(message);
+            return true;
+        }
+        onMessageSendFail(message);
+        return false;
+    }
+
     /**
      * Повертає стан активності поточного сервера.
      * @return стан активності
@@ -179,6 +200,14 @@ public class ServerService {
         return "";
     }
 
+    /**
+     * Повертає поточні значення метрик сервера.
+     * @return значення метрик за їх назвами
+     */
+    public Map<String, Long> getMetrics() {
+        return Metrics.snapshot();
+    }
+
     /**
      * Повертає IP сервера.
      * @return IP сервера
@@ -0,0 +1,179 @@
+package com.fluffy.server.services;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Клас сесійних токенів. Після успішної авторизації клієнт отримує
+ * підписаний токен з обмеженим часом дії, який дозволяє повторно
+ * авторизуватися перевіркою HMAC замість BCrypt та запиту до бази даних.
+ * Формат токена: номер видачі, час закінчення дії (у мілісекундах від
+ * початку епохи) та HMAC-SHA256 імені користувача разом із цими значеннями,
+ * розділені крапками. Ключ підпису створюється випадково під час запуску
+ * сервера, тому після перезапуску токени стають недійсними. Токени
+ * користувача можна відкликати (наприклад, після зміни його даних).
+ * @author Сивоконь Вадим
+ */
+public class SessionTokens {
+    /**
+     * Алгоритм HMAC.
+     */
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    /**
+     * Довжина ключа HMAC (у байтах).
+     */
+    private static final int KEY_LENGTH = 32;
+
+    /**
+     * Кількість записів про відкликання, після якої застарілі записи
+     * видаляються.
+     */
+    private static final int REVOCATIONS_CLEANUP_THRESHOLD = 1024;
+
+    /**
+     * Ключ HMAC.
+     */
+    private final SecretKeySpec key;
+
+    /**
+     * Час дії токена (у мілісекундах).
+     */
+    private final long ttl;
+
+    /**
+     * Номер останнього виданого токена.
+     */
+    private final AtomicLong lastSerial;
+
+    /**
+     * Записи про відкликання за іменем користувача: токени з номером, не
+     * більшим за збережений, недійсні.
+     */
+    private final ConcurrentMap<String, Revocation> revocations;
+
+    /**
+     * Конструктор об'єкта сесійних токенів.
+     * @param ttl час дії токена (у мілісекундах)
+     */
+    public SessionTokens(final long ttl) {
+        byte[] keyBytes = new byte[KEY_LENGTH];
+        new SecureRandom().nextBytes(keyBytes);
+        this.key = new SecretKeySpec(keyBytes, HMAC_ALGORITHM);
+        this.ttl = ttl;
+        this.lastSerial = new AtomicLong();
+        this.revocations = new ConcurrentHashMap<>();
+    }
+
+    private byte[] sign(final String name, final long serial, final long expirationTime) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return mac.doFinal((name + '\n' + serial + '\n' + expirationTime).getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            // HmacSHA256 є обов'язковим алгоритмом для всіх реалізацій Java
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Видає новий токен користувачу.
+     * @param name ім'я користувача
+     * @return токен
+     */
+    public String issue(final String name) {
+        long serial = lastSerial.incrementAndGet();
+        long expirationTime = System.currentTimeMillis() + ttl;
+        return serial + "." + expirationTime + "."
+                + Base64.getUrlEncoder().withoutPadding().encodeToString(sign(name, serial, expirationTime));
+    }
+
+    /**
+     * Перевіряє токен користувача.
+     * @param name ім'я користувача
+     * @param token токен
+     * @return чи є токен дійсним для цього користувача
+     */
+    public boolean verify(final String name, final String token) {
+        if (name == null || token == null) {
+            return false;
+        }
+
+        String[] parts = token.split("\\.");
+        if (parts.length != 3) {
+            return false;
+        }
+        long serial;
+        long expirationTime;
+        byte[] signature;
+        try {
+            serial = Long.parseLong(parts[0]);
+            expirationTime = Long.parseLong(parts[1]);
+            signature = Base64.getUrlDecoder().decode(parts[2]);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+
+        if (expirationTime <= System.currentTimeMillis()) {
+            return false;
+        }
+        Revocation revocation = revocations.get(name);
+        if (revocation != null && serial <= revocation.serial) {
+            return false;
+        }
+        return MessageDigest.isEqual(signature, sign(name, serial, expirationTime));
+    }
+
+    /**
+     * Відкликає всі видані раніше токени користувача.
+     * @param name ім'я користувача
+     */
+    public void revoke(final String name) {
+        if (name == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        revocations.merge(name, new Revocation(lastSerial.get(), now),
+                (previous, current) -> previous.serial >= current.serial ? previous : current);
+
+        if (revocations.size() > REVOCATIONS_CLEANUP_THRESHOLD) {
+            // відкликання, старші за час дії токена, вже нічого не змінюють
+            Iterator<Map.Entry<String, Revocation>> iterator = revocations.entrySet().iterator();
+            while (iterator.hasNext()) {
+                if (now - iterator.next().getValue().time > ttl) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Клас запису про відкликання.
+     */
+    private static final class Revocation {
+        /**
+         * Номер останнього токена, виданого до відкликання.
+         */
+        private final long serial;
+
+        /**
+         * Час відкликання (у мілісекундах від початку епохи).
+         */
+        private final long time;
+
+        private Revocation(final long serial, final long time) {
+            this.serial = serial;
+            this.time = time;
+        }
+    }
+}
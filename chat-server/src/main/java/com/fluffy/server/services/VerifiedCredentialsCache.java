@@ -0,0 +1,161 @@
+package com.fluffy.server.services;
+
+import com.fluffy.server.util.Metrics;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Клас кешу успішних перевірок пароля. Для кожного імені запам'ятовується
+ * збережений хеш пароля та HMAC пароля з випадковим ключем, що створюється
+ * під час запуску, тому сам пароль не зберігається. Повторна авторизація з
+ * тим самим паролем перевіряється порівнянням HMAC замість BCrypt. Після
+ * зміни пароля збережений хеш змінюється, тому старий запис одразу стає
+ * недійсним. Записи мають обмежений час життя, а їх кількість обмежена
+ * (видаляються найдавніше використані).
+ * @author Сивоконь Вадим
+ */
+public class VerifiedCredentialsCache {
+    /**
+     * Алгоритм HMAC.
+     */
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    /**
+     * Довжина ключа HMAC (у байтах).
+     */
+    private static final int KEY_LENGTH = 32;
+
+    /**
+     * Ключ HMAC.
+     */
+    private final SecretKeySpec key;
+
+    /**
+     * Час життя запису (у наносекундах).
+     */
+    private final long ttl;
+
+    /**
+     * Максимальна кількість записів.
+     */
+    private final int maxSize;
+
+    /**
+     * Записи за іменем користувача в порядку використання (доступ - під
+     * блокуванням поточного об'єкта).
+     */
+    private final Map<String, Credentials> entries;
+
+    /**
+     * Конструктор об'єкта кешу.
+     * @param ttl час життя запису (у мілісекундах)
+     * @param maxSize максимальна кількість записів
+     */
+    public VerifiedCredentialsCache(final long ttl, final int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        byte[] keyBytes = new byte[KEY_LENGTH];
+        new SecureRandom().nextBytes(keyBytes);
+        this.key = new SecretKeySpec(keyBytes, HMAC_ALGORITHM);
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<String, Credentials>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Credentials> eldest) {
+                return size() > VerifiedCredentialsCache.this.maxSize;
+            }
+        };
+    }
+
+    private byte[] digest(final String password) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            // HmacSHA256 є обов'язковим алгоритмом для всіх реалізацій Java
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Перевіряє, чи був цей пароль нещодавно успішно перевірений для
+     * користувача з указаним збереженим хешем.
+     * @param name ім'я користувача
+     * @param passwordHash збережений хеш пароля
+     * @param password пароль, що перевіряється
+     * @return чи був пароль нещодавно успішно перевірений
+     */
+    public boolean matches(final String name, final String passwordHash, final String password) {
+        Credentials credentials;
+        synchronized (this) {
+            credentials = entries.get(name);
+            if (credentials != null && System.nanoTime() - credentials.expirationTime >= 0) {
+                entries.remove(name);
+                credentials = null;
+            }
+        }
+
+        boolean result = credentials != null
+                && credentials.passwordHash.equals(passwordHash)
+                && MessageDigest.isEqual(credentials.passwordDigest, digest(password));
+        Metrics.increment(result ? "server.auth.verified-cache.hits" : "server.auth.verified-cache.misses");
+        return result;
+    }
+
+    /**
+     * Запам'ятовує успішну перевірку пароля.
+     * @param name ім'я користувача
+     * @param passwordHash збережений хеш пароля
+     * @param password перевірений пароль
+     */
+    public void put(final String name, final String passwordHash, final String password) {
+        Credentials credentials = new Credentials(passwordHash, digest(password), System.nanoTime() + ttl);
+        synchronized (this) {
+            entries.put(name, credentials);
+        }
+    }
+
+    /**
+     * Видаляє запис для користувача.
+     * @param name ім'я користувача
+     */
+    public synchronized void invalidate(final String name) {
+        entries.remove(name);
+    }
+
+    /**
+     * Клас запису кешу.
+     */
+    private static final class Credentials {
+        /**
+         * Збережений хеш пароля.
+         */
+        private final String passwordHash;
+
+        /**
+         * HMAC пароля.
+         */
+        private final byte[] passwordDigest;
+
+        /**
+         * Час, після якого запис недійсний (у наносекундах).
+         */
+        private final long expirationTime;
+
+        private Credentials(final String passwordHash, final byte[] passwordDigest, final long expirationTime) {
+            this.passwordHash = passwordHash;
+            this.passwordDigest = passwordDigest;
+            this.expirationTime = expirationTime;
+        }
+    }
+}
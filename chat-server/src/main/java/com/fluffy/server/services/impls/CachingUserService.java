@@ -0,0 +1,256 @@
+package com.fluffy.server.services.impls;
+
+import com.fluffy.server.exceptions.DBConnectionException;
+import com.fluffy.server.exceptions.PersistException;
+import com.fluffy.server.models.User;
+import com.fluffy.server.services.UserService;
+import com.fluffy.server.util.Metrics;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Реалізація сервісу для отримання даних про користувачів, що кешує пошук
+ * користувача за іменем. Записи кешу мають обмежений час життя, а їх
+ * кількість обмежена (видаляються найдавніше використані). Кешуються й
+ * відсутні користувачі, тому повторні спроби авторизації з неіснуючим
+ * іменем теж не звертаються до бази даних. Одночасні пошуки одного імені
+ * виконують лише один запит. Створення, оновлення та видалення користувачів
+ * передаються основному сервісу й роблять відповідні записи кешу недійсними.
+ * @author Сивоконь Вадим
+ */
+public class CachingUserService implements UserService {
+    /**
+     * Основний сервіс.
+     */
+    private final UserService userService;
+
+    /**
+     * Час життя запису кешу (у наносекундах).
+     */
+    private final long ttl;
+
+    /**
+     * Максимальна кількість записів кешу.
+     */
+    private final int maxSize;
+
+    /**
+     * Записи кешу за іменем користувача в порядку використання.
+     */
+    private final Map<String, CacheEntry> entries;
+
+    /**
+     * Пошуки, що виконуються в поточний момент, за іменем користувача.
+     */
+    private final ConcurrentMap<String, FutureTask<User>> loads;
+
+    /**
+     * Номер покоління кешу, збільшується під час кожної зміни користувачів.
+     * Результат пошуку, розпочатого в попередньому поколінні, не кешується.
+     */
+    private long generation;
+
+    /**
+     * Конструктор об'єкта сервісу.
+     * @param userService основний сервіс
+     * @param ttl час життя запису кешу (у мілісекундах)
+     * @param maxSize максимальна кількість записів кешу
+     */
+    public CachingUserService(final UserService userService, final long ttl, final int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.userService = userService;
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, CacheEntry> eldest) {
+                return size() > CachingUserService.this.maxSize;
+            }
+        };
+        this.loads = new ConcurrentHashMap<>();
+    }
+
+    private static User copy(final User user) {
+        if (user == null) {
+            return null;
+        }
+        User result = new User();
+        result.setId(user.getId());
+        result.setName(user.getName());
+        result.setPassword(user.getPassword());
+        return result;
+    }
+
+    private synchronized void invalidateName(final String name) {
+        ++generation;
+        // нові пошуки не повинні приєднуватися до запитів, розпочатих до зміни
+        loads.clear();
+        if (name != null) {
+            entries.remove(name);
+        }
+    }
+
+    private synchronized void invalidateId(final Integer id) {
+        ++generation;
+        loads.clear();
+        Iterator<CacheEntry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            User user = iterator.next().user;
+            if (user != null && Objects.equals(user.getId(), id)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Робить недійсними всі записи кешу.
+     */
+    public synchronized void invalidateAll() {
+        ++generation;
+        loads.clear();
+        entries.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public User create(final User user) throws DBConnectionException, PersistException {
+        try {
+            return userService.create(user);
+        } finally {
+            // відсутність користувача з цим іменем могла бути закешована
+            invalidateName(user.getName());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public User update(final User user, final Integer id) throws DBConnectionException, PersistException {
+        try {
+            return userService.update(user, id);
+        } finally {
+            invalidateId(id);
+            invalidateName(user.getName());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean delete(final Integer id) throws DBConnectionException, PersistException {
+        try {
+            return userService.delete(id);
+        } finally {
+            invalidateId(id);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public User findById(final Integer id) throws DBConnectionException, PersistException {
+        return userService.findById(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public User findByName(final String name) throws DBConnectionException, PersistException {
+        long loadGeneration;
+        synchronized (this) {
+            CacheEntry entry = entries.get(name);
+            if (entry != null && System.nanoTime() - entry.expirationTime < 0) {
+                Metrics.increment("user-cache.hits");
+                return copy(entry.user);
+            }
+            loadGeneration = generation;
+        }
+        Metrics.increment("user-cache.misses");
+
+        FutureTask<User> load = new FutureTask<>(() -> userService.findByName(name));
+        FutureTask<User> existingLoad = loads.putIfAbsent(name, load);
+        if (existingLoad == null) {
+            try {
+                load.run();
+            } finally {
+                loads.remove(name, load);
+            }
+        } else {
+            load = existingLoad;
+        }
+
+        User user = await(load);
+        synchronized (this) {
+            if (loadGeneration == generation) {
+                entries.put(name, new CacheEntry(copy(user), System.nanoTime() + ttl));
+            }
+        }
+        return copy(user);
+    }
+
+    private static User await(final FutureTask<User> load) throws DBConnectionException, PersistException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DBConnectionException("Очікування даних про користувача перерване");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DBConnectionException) {
+                throw (DBConnectionException) cause;
+            }
+            if (cause instanceof PersistException) {
+                throw (PersistException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new PersistException("Не вдалося отримати дані про користувача", cause);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<User> findAll() throws DBConnectionException, PersistException {
+        return userService.findAll();
+    }
+
+    /**
+     * Клас запису кешу.
+     */
+    private static final class CacheEntry {
+        /**
+         * Користувач або null, якщо користувача з таким іменем немає.
+         */
+        private final User user;
+
+        /**
+         * Час, після якого запис недійсний (у наносекундах).
+         */
+        private final long expirationTime;
+
+        private CacheEntry(final User user, final long expirationTime) {
+            this.user = user;
+            this.expirationTime = expirationTime;
+        }
+    }
+}
@@ -2,16 +2,61 @@ package com.fluffy.server.util;
 
 import com.fluffy.server.exceptions.DBConnectionException;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Допоміжний клас, дозволяє зберігати параметри підключення до бази даних та
- * отримувати його.
+ * отримувати його. З'єднання беруться з обмеженого пулу: після закриття
+ * з'єднання, отриманого з пулу, фізичне з'єднання повертається до пулу й
+ * використовується повторно. Перед видачею з'єднання перевіряється, довго
+ * невикористовувані з'єднання закриваються, а з'єднання, які не повертаються
+ * надто довго, вважаються можливим витоком.
  * @author Сивоконь Вадим
  */
 public class DataSource {
+    /**
+     * Максимальна кількість з'єднань за замовчуванням.
+     */
+    private static final int DEFAULT_MAX_POOL_SIZE = 8;
+
+    /**
+     * Максимальний час очікування вільного з'єднання за замовчуванням (у
+     * мілісекундах).
+     */
+    private static final long DEFAULT_MAX_WAIT = 5000;
+
+    /**
+     * Час, після якого невикористовуване з'єднання закривається, за
+     * замовчуванням (у мілісекундах).
+     */
+    private static final long DEFAULT_IDLE_TIMEOUT = 600000;
+
+    /**
+     * Максимальний час перевірки з'єднання за замовчуванням (у мілісекундах).
+     */
+    private static final long DEFAULT_VALIDATION_TIMEOUT = 2000;
+
+    /**
+     * Час утримання з'єднання, після якого повідомляється про можливий витік,
+     * за замовчуванням (у мілісекундах, 0 - не перевіряти).
+     */
+    private static final long DEFAULT_LEAK_DETECTION_THRESHOLD = 60000;
+
     /**
      * URL.
      */
@@ -33,7 +78,61 @@ public class DataSource {
     private final String driverClass;
 
     /**
-     * Конструктор об'єкта джерела даних.
+     * Максимальна кількість з'єднань.
+     */
+    private final int maxPoolSize;
+
+    /**
+     * Максимальний час очікування вільного з'єднання (у мілісекундах).
+     */
+    private final long maxWait;
+
+    /**
+     * Час, після якого невикористовуване з'єднання закривається (у
+     * мілісекундах).
+     */
+    private final long idleTimeout;
+
+    /**
+     * Максимальний час перевірки з'єднання (у мілісекундах).
+     */
+    private final long validationTimeout;
+
+    /**
+     * Час утримання з'єднання, після якого повідомляється про можливий витік
+     * (у мілісекундах, 0 - не перевіряти).
+     */
+    private final long leakDetectionThreshold;
+
+    /**
+     * Дозволи на видачу з'єднань (обмежують кількість виданих з'єднань).
+     */
+    private final Semaphore permits;
+
+    /**
+     * Вільні з'єднання. Останнє повернене з'єднання видається першим, тому
+     * рідко використовувані з'єднання залишаються в кінці й закриваються.
+     */
+    private final Deque<PooledConnection> idleConnections;
+
+    /**
+     * Видані з'єднання.
+     */
+    private final Set<PooledConnection> borrowedConnections;
+
+    /**
+     * Потік обслуговування пулу (закриття невикористовуваних з'єднань та
+     * пошук витоків).
+     */
+    private final ScheduledExecutorService housekeeper;
+
+    /**
+     * Чи був пул закритий.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Конструктор об'єкта джерела даних із параметрами пулу за замовчуванням.
      * @param url URL
      * @param username ім'я користувача
      * @param password пароль
@@ -41,27 +140,200 @@ public class DataSource {
      * @throws ClassNotFoundException якщо клас драйвера не вдалося знайти
      */
     public DataSource(final String url, final String username, final String password, final String driverClass) throws ClassNotFoundException {
+        this(url, username, password, driverClass, DEFAULT_MAX_POOL_SIZE, DEFAULT_MAX_WAIT, DEFAULT_IDLE_TIMEOUT,
+                DEFAULT_VALIDATION_TIMEOUT, DEFAULT_LEAK_DETECTION_THRESHOLD);
+    }
+
+    /**
+     * Конструктор об'єкта джерела даних.
+     * @param url URL
+     * @param username ім'я користувача
+     * @param password пароль
+     * @param driverClass назва класа драйвера
+     * @param maxPoolSize максимальна кількість з'єднань
+     * @param maxWait максимальний час очікування вільного з'єднання (у
+     *        мілісекундах)
+     * @param idleTimeout час, після якого невикористовуване з'єднання
+     *        закривається (у мілісекундах)
+     * @param validationTimeout максимальний час перевірки з'єднання (у
+     *        мілісекундах)
+     * @param leakDetectionThreshold час утримання з'єднання, після якого
+     *        воно враховується як можливий витік у метриці
+     *        data-source.pool.leaks (у мілісекундах, 0 - не перевіряти)
+     * @throws ClassNotFoundException якщо клас драйвера не вдалося знайти
+     */
+    public DataSource(final String url, final String username, final String password, final String driverClass,
+                      final int maxPoolSize, final long maxWait, final long idleTimeout,
+                      final long validationTimeout, final long leakDetectionThreshold) throws ClassNotFoundException {
+        if (maxPoolSize <= 0) {
+            throw new IllegalArgumentException("maxPoolSize <= 0");
+        }
         this.url = url;
         this.username = username;
         this.password = password;
         this.driverClass = driverClass;
+        this.maxPoolSize = maxPoolSize;
+        this.maxWait = maxWait;
+        this.idleTimeout = idleTimeout;
+        this.validationTimeout = validationTimeout;
+        this.leakDetectionThreshold = leakDetectionThreshold;
 
         Class.forName(driverClass);
+
+        this.permits = new Semaphore(maxPoolSize, true);
+        this.idleConnections = new ConcurrentLinkedDeque<>();
+        this.borrowedConnections = ConcurrentHashMap.newKeySet();
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "data-source-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, Math.min(idleTimeout, leakDetectionThreshold > 0 ? leakDetectionThreshold : idleTimeout) / 2);
+        housekeeper.scheduleWithFixedDelay(this::houseKeep, period, period, TimeUnit.MILLISECONDS);
+
+        Metrics.registerGauge("data-source.pool.active", borrowedConnections::size);
+        Metrics.registerGauge("data-source.pool.idle", idleConnections::size);
+        Metrics.registerGauge("data-source.pool.waiting", permits::getQueueLength);
+        Metrics.registerGauge("data-source.pool.saturation-percent", () -> 100L * borrowedConnections.size() / this.maxPoolSize);
     }
 
     /**
      * Повертає з'єднання із базою даних відповідно до встановлених параметрів.
+     * З'єднання береться з пулу; його закриття повертає з'єднання до пулу.
      * @return з'єднання
      * @throws DBConnectionException якщо не вдалося підключитися до бази даних
+     *         або дочекатися вільного з'єднання
      */
     public Connection getConnection() throws DBConnectionException {
+        if (closed) {
+            throw new DBConnectionException("Не вдалося отримати з'єднання із базою даних: пул закритий");
+        }
+
+        long startTime = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+                Metrics.increment("data-source.pool.timeouts");
+                throw new DBConnectionException("Не вдалося отримати з'єднання із базою даних: усі з'єднання зайняті");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DBConnectionException("Не вдалося отримати з'єднання із базою даних: очікування перерване");
+        }
+
         try {
-            return DriverManager.getConnection(url, username, password);
+            PooledConnection pooledConnection = takeIdleConnection();
+            if (pooledConnection == null) {
+                pooledConnection = new PooledConnection(DriverManager.getConnection(url, username, password));
+                Metrics.increment("data-source.pool.created");
+            }
+            Connection connection = pooledConnection.borrow();
+            borrowedConnections.add(pooledConnection);
+
+            Metrics.increment("data-source.pool.borrows");
+            Metrics.recordLatency("data-source.pool.borrow-time", System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+            return connection;
         } catch (SQLException e) {
+            permits.release();
             throw new DBConnectionException("Не вдалося отримати з'єднання із базою даних");
         }
     }
 
+    private PooledConnection takeIdleConnection() {
+        PooledConnection pooledConnection;
+        while ((pooledConnection = idleConnections.pollFirst()) != null) {
+            if (isValid(pooledConnection.connection)) {
+                return pooledConnection;
+            }
+            Metrics.increment("data-source.pool.invalidated");
+            closeQuietly(pooledConnection.connection);
+        }
+        return null;
+    }
+
+    private boolean isValid(final Connection connection) {
+        try {
+            int timeoutSeconds = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(validationTimeout + 999));
+            return connection.isValid(timeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void giveBack(final PooledConnection pooledConnection) {
+        borrowedConnections.remove(pooledConnection);
+        try {
+            Connection connection = pooledConnection.connection;
+            if (!connection.isClosed() && !connection.getAutoCommit()) {
+                // незавершена транзакція не повинна потрапити до наступного
+                // користувача з'єднання
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            if (closed || connection.isClosed()) {
+                closeQuietly(connection);
+            } else {
+                idleConnections.addFirst(pooledConnection);
+            }
+        } catch (SQLException e) {
+            closeQuietly(pooledConnection.connection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void houseKeep() {
+        long now = System.nanoTime();
+
+        // закриття довго невикористовуваних з'єднань
+        Iterator<PooledConnection> iterator = idleConnections.descendingIterator();
+        while (iterator.hasNext()) {
+            PooledConnection pooledConnection = iterator.next();
+            if (now - pooledConnection.lastUsedTime >= TimeUnit.MILLISECONDS.toNanos(idleTimeout)
+                    && idleConnections.removeLastOccurrence(pooledConnection)) {
+                Metrics.increment("data-source.pool.evicted");
+                closeQuietly(pooledConnection.connection);
+            }
+        }
+
+        // пошук з'єднань, які не повертаються надто довго
+        if (leakDetectionThreshold > 0) {
+            for (PooledConnection pooledConnection : borrowedConnections) {
+                if (!pooledConnection.leakReported
+                        && now - pooledConnection.lastUsedTime >= TimeUnit.MILLISECONDS.toNanos(leakDetectionThreshold)) {
+                    pooledConnection.leakReported = true;
+                    Metrics.increment("data-source.pool.leaks");
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(final Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // з'єднання вже недоступне
+        }
+    }
+
+    /**
+     * Закриває пул: вільні з'єднання закриваються одразу, а видані - під час
+     * повернення.
+     */
+    public void close() {
+        if (!closed) {
+            closed = true;
+            housekeeper.shutdownNow();
+            PooledConnection pooledConnection;
+            while ((pooledConnection = idleConnections.pollFirst()) != null) {
+                closeQuietly(pooledConnection.connection);
+            }
+            Metrics.unregisterGauge("data-source.pool.active");
+            Metrics.unregisterGauge("data-source.pool.idle");
+            Metrics.unregisterGauge("data-source.pool.waiting");
+            Metrics.unregisterGauge("data-source.pool.saturation-percent");
+        }
+    }
+
     /**
      * Повертає URL.
      * @return URL
@@ -93,4 +365,97 @@ public class DataSource {
     public String getDriverClass() {
         return driverClass;
     }
+
+    /**
+     * Повертає максимальну кількість з'єднань у пулі.
+     * @return максимальна кількість з'єднань
+     */
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    /**
+     * Клас фізичного з'єднання, що належить пулу. Під час кожної видачі
+     * створюється новий проксі, закриття якого повертає з'єднання до пулу.
+     */
+    private final class PooledConnection {
+        /**
+         * Фізичне з'єднання.
+         */
+        private final Connection connection;
+
+        /**
+         * Час останньої видачі або повернення (у наносекундах).
+         */
+        private volatile long lastUsedTime;
+
+        /**
+         * Чи був витік уже врахований у метриці.
+         */
+        private volatile boolean leakReported;
+
+        private PooledConnection(final Connection connection) {
+            this.connection = connection;
+            this.lastUsedTime = System.nanoTime();
+        }
+
+        private Connection borrow() {
+            leakReported = false;
+            lastUsedTime = System.nanoTime();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Lease(this));
+        }
+    }
+
+    /**
+     * Клас одноразової видачі з'єднання. Після закриття проксі всі виклики,
+     * крім закриття та перевірки стану, завершуються помилкою.
+     */
+    private final class Lease implements InvocationHandler {
+        /**
+         * З'єднання пулу.
+         */
+        private final PooledConnection pooledConnection;
+
+        /**
+         * Чи було з'єднання повернуте до пулу.
+         */
+        private volatile boolean released;
+
+        private Lease(final PooledConnection pooledConnection) {
+            this.pooledConnection = pooledConnection;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!released) {
+                        released = true;
+                        pooledConnection.lastUsedTime = System.nanoTime();
+                        giveBack(pooledConnection);
+                    }
+                    return null;
+                case "isClosed":
+                    return released || pooledConnection.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pooledConnection.connection + "]";
+                default:
+                    break;
+            }
+
+            if (released) {
+                throw new SQLException("З'єднання вже повернуте до пулу");
+            }
+            try {
+                return method.invoke(pooledConnection.connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
 }
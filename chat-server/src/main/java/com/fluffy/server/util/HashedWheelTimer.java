@@ -0,0 +1,219 @@
+package com.fluffy.server.util;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Клас таймера на основі хешованого колеса. Колесо складається з кошиків,
+ * кожен з яких відповідає одному такту; завдання потрапляє до кошика за
+ * часом спрацювання, тому планування та скасування виконуються за O(1), а
+ * на кожному такті переглядається лише один кошик. Точність спрацювання
+ * обмежена тривалістю такту, що достатньо для тайм-аутів неактивності.
+ * Усі завдання виконуються в одному потоці таймера, тому вони мають бути
+ * короткими та не блокуватися.
+ * @author Сивоконь Вадим
+ */
+public class HashedWheelTimer {
+    /**
+     * Тривалість такту (у наносекундах).
+     */
+    private final long tickDuration;
+
+    /**
+     * Кошики колеса.
+     */
+    private final Queue<Timeout>[] wheel;
+
+    /**
+     * Маска для обчислення номера кошика (розмір колеса - степінь двійки).
+     */
+    private final int mask;
+
+    /**
+     * Нові завдання, які ще не розкладені по кошиках.
+     */
+    private final Queue<Timeout> pendingTimeouts;
+
+    /**
+     * Потік таймера.
+     */
+    private Thread workerThread;
+
+    /**
+     * Час запуску таймера (у наносекундах).
+     */
+    private volatile long startTime;
+
+    /**
+     * Стан таймера.
+     */
+    private volatile boolean active;
+
+    /**
+     * Конструктор об'єкта таймера.
+     * @param tickDuration тривалість такту
+     * @param unit одиниця вимірювання тривалості такту
+     * @param wheelSize кількість кошиків (округлюється до степеня двійки)
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public HashedWheelTimer(final long tickDuration, final TimeUnit unit, final int wheelSize) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration <= 0");
+        }
+        if (wheelSize <= 0) {
+            throw new IllegalArgumentException("wheelSize <= 0");
+        }
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) {
+            size <<= 1;
+        }
+        this.tickDuration = unit.toNanos(tickDuration);
+        this.wheel = new Queue[size];
+        for (int i = 0; i < size; ++i) {
+            wheel[i] = new LinkedList<>();
+        }
+        this.mask = size - 1;
+        this.pendingTimeouts = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Запускає потік таймера.
+     * @param name ім'я потоку
+     */
+    public void start(final String name) {
+        if (!active) {
+            active = true;
+            startTime = System.nanoTime();
+            workerThread = new Thread(this::run, name);
+            workerThread.setDaemon(true);
+            workerThread.start();
+        }
+    }
+
+    /**
+     * Зупиняє таймер. Заплановані завдання більше не виконуються.
+     */
+    public void stop() {
+        if (active) {
+            active = false;
+            workerThread.interrupt();
+        }
+    }
+
+    /**
+     * Планує одноразове виконання завдання через вказаний час.
+     * @param task завдання
+     * @param delay затримка
+     * @param unit одиниця вимірювання затримки
+     * @return об'єкт, через який завдання можна скасувати
+     */
+    public Timeout schedule(final Runnable task, final long delay, final TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + Math.max(0, unit.toNanos(delay)));
+        pendingTimeouts.add(timeout);
+        return timeout;
+    }
+
+    private void transferPendingTimeouts(final long tick) {
+        Timeout timeout;
+        while ((timeout = pendingTimeouts.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            // завдання, час яких уже минув, виконуються на поточному такті
+            long targetTick = Math.max(tick, (timeout.deadline - startTime + tickDuration - 1) / tickDuration);
+            timeout.remainingRounds = (targetTick - tick) / wheel.length;
+            wheel[(int) (targetTick & mask)].add(timeout);
+        }
+    }
+
+    private void expireTimeouts(final Queue<Timeout> bucket) {
+        Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.isCancelled()) {
+                iterator.remove();
+            } else if (timeout.remainingRounds <= 0) {
+                iterator.remove();
+                timeout.expire();
+            } else {
+                --timeout.remainingRounds;
+            }
+        }
+    }
+
+    private void run() {
+        long tick = 0;
+        while (active && !Thread.currentThread().isInterrupted()) {
+            long sleepNanos = startTime + (tick + 1) * tickDuration - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            transferPendingTimeouts(tick);
+            expireTimeouts(wheel[(int) (tick & mask)]);
+            ++tick;
+        }
+    }
+
+    /**
+     * Клас запланованого завдання таймера.
+     */
+    public static final class Timeout {
+        /**
+         * Завдання.
+         */
+        private final Runnable task;
+
+        /**
+         * Час спрацювання (у наносекундах).
+         */
+        private final long deadline;
+
+        /**
+         * Кількість повних обертів колеса до спрацювання (змінюється лише
+         * потоком таймера).
+         */
+        private long remainingRounds;
+
+        /**
+         * Чи було завдання скасоване.
+         */
+        private volatile boolean cancelled;
+
+        private Timeout(final Runnable task, final long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        private void expire() {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // помилка одного завдання не повинна зупиняти таймер
+            }
+        }
+
+        /**
+         * Скасовує завдання, якщо воно ще не було виконане.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Повертає логічне значення - чи було завдання скасоване.
+         * @return чи було завдання скасоване
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
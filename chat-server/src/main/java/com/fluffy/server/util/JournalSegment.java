@@ -0,0 +1,327 @@
+package com.fluffy.server.util;
+
+import com.fluffy.messaging.Frames;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Клас сегмента журналу повідомлень для читання. Файл сегмента
+ * відображається в пам'ять (MappedByteBuffer), а індекс зміщень записів
+ * дозволяє знайти запис за номером за O(1) та передати його вміст без
+ * копіювання в купу. Номери записів, відкинутих журналом, залишаються в
+ * індексі порожніми. Для сегментів, що вже існують, індекс будується під час
+ * відкриття журналу, а індекс поточного сегмента доповнює потік запису.
+ * Записи стають доступними для читання лише після того, як потік запису
+ * опублікує їх. Файл нового сегмента одразу створюється граничного розміру
+ * (хвіст заповнений нулями, які не є коректним записом), тому відображення
+ * поточного сегмента створюється один раз, а не після кожного додавання.
+ * Файл, відображений у пам'ять, не можна скоротити чи видалити в Windows, тому
+ * сегменти ніколи не скорочуються, а видалення журнал за потреби відкладає.
+ * @author Сивоконь Вадим
+ */
+final class JournalSegment {
+    /**
+     * Сигнатура сегмента.
+     */
+    static final int MAGIC = 0x464C4A31;
+
+    /**
+     * Розширення файлу сегмента.
+     */
+    static final String SUFFIX = ".seg";
+
+    /**
+     * Розмір заголовка запису (довжина, номер, контрольна сума).
+     */
+    static final int RECORD_HEADER_SIZE = 4 + 8 + 4;
+
+    /**
+     * Шлях до файлу сегмента.
+     */
+    private final Path path;
+
+    /**
+     * Номер першого запису.
+     */
+    private final long firstSeq;
+
+    /**
+     * Назва кодека, яким закодовані записи, або null, якщо заголовок
+     * пошкоджений.
+     */
+    private final String codecName;
+
+    /**
+     * Зміщення записів у файлі за номером запису відносно першого (-1 для
+     * відкинутих записів; змінюється лише потоком запису).
+     */
+    private int[] offsets;
+
+    /**
+     * Кількість проіндексованих номерів разом із пропусками (змінюється лише
+     * потоком запису).
+     */
+    private int indexed;
+
+    /**
+     * Кількість опублікованих номерів разом із пропусками.
+     */
+    private volatile int published;
+
+    /**
+     * Кінець останнього опублікованого запису (зміщення у файлі).
+     */
+    private volatile int publishedEnd;
+
+    /**
+     * Відображення файлу в пам'ять (доступ - під блокуванням поточного
+     * об'єкта).
+     */
+    private MappedByteBuffer mapped;
+
+    /**
+     * Байт для розширення файлу до граничного розміру.
+     */
+    private static final byte[] PREALLOCATION_MARK = new byte[1];
+
+    private JournalSegment(final Path path, final long firstSeq, final String codecName, final int dataStart) {
+        this.path = path;
+        this.firstSeq = firstSeq;
+        this.codecName = codecName;
+        this.offsets = new int[64];
+        this.publishedEnd = dataStart;
+    }
+
+    /**
+     * Створює порожній сегмент граничного розміру і записує його заголовок.
+     * @param path шлях до файлу сегмента
+     * @param firstSeq номер першого запису
+     * @param codecName назва кодека, яким закодовані записи
+     * @param channel канал файлу сегмента, відкритий для запису
+     * @param size граничний розмір сегмента (у байтах)
+     * @return сегмент
+     * @throws IOException якщо заголовок не вдалося записати
+     */
+    static JournalSegment create(final Path path, final long firstSeq, final String codecName,
+                                 final FileChannel channel, final long size) throws IOException {
+        byte[] name = codecName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(4 + 2 + name.length);
+        header.putInt(MAGIC).putShort((short) name.length).put(name).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        preallocate(channel, size);
+        return new JournalSegment(path, firstSeq, codecName, header.capacity());
+    }
+
+    /**
+     * Розширює файл сегмента до граничного розміру, не змінюючи позиції
+     * каналу (файл, що вже має такий розмір, не змінюється).
+     * @param channel канал файлу сегмента, відкритий для запису
+     * @param size граничний розмір сегмента (у байтах)
+     * @throws IOException якщо файл не вдалося розширити
+     */
+    static void preallocate(final FileChannel channel, final long size) throws IOException {
+        if (channel.size() < size) {
+            channel.write(ByteBuffer.wrap(PREALLOCATION_MARK), size - 1);
+        }
+    }
+
+    /**
+     * Відкриває наявний сегмент: відображає його в пам'ять та індексує
+     * записи до першого пошкодженого або незавершеного.
+     * @param path шлях до файлу сегмента
+     * @return сегмент
+     * @throws IOException якщо сегмент не вдалося прочитати
+     */
+    static JournalSegment load(final Path path) throws IOException {
+        String fileName = path.getFileName().toString();
+        long firstSeq = Long.parseLong(fileName.substring(0, fileName.length() - SUFFIX.length()));
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Завеликий сегмент журналу: " + path);
+            }
+            // заголовок перевіряється без відображення, щоб пошкоджений
+            // сегмент можна було видалити
+            ByteBuffer header = ByteBuffer.allocate(4 + 2);
+            int read = 0;
+            while (header.hasRemaining() && read >= 0) {
+                read = channel.read(header);
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC
+                    || 4 + 2 + (header.getShort(4) & 0xFFFF) > channel.size()) {
+                return new JournalSegment(path, firstSeq, null, 0);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int size = buffer.capacity();
+        byte[] name = new byte[buffer.getShort(4) & 0xFFFF];
+        ByteBuffer nameBuffer = buffer.duplicate();
+        nameBuffer.position(4 + 2);
+        nameBuffer.get(name);
+
+        int position = 4 + 2 + name.length;
+        JournalSegment segment = new JournalSegment(path, firstSeq, new String(name, StandardCharsets.UTF_8), position);
+        CRC32 crc = new CRC32();
+        while (position + RECORD_HEADER_SIZE <= size) {
+            int length = buffer.getInt(position);
+            long seq = buffer.getLong(position + 4);
+            // номери зростають, пропуски допускаються; нулі в кінці файлу не
+            // проходять цю перевірку
+            if (length < 0 || length > Frames.MAX_PAYLOAD_SIZE || length > size - position - RECORD_HEADER_SIZE
+                    || seq < segment.getNextIndexedSeq() || seq - firstSeq >= Integer.MAX_VALUE) {
+                break;
+            }
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(position + RECORD_HEADER_SIZE).limit(position + RECORD_HEADER_SIZE + length);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != buffer.getInt(position + 4 + 8)) {
+                break;
+            }
+
+            segment.index(seq, position);
+            position += RECORD_HEADER_SIZE + length;
+        }
+        segment.publish(position);
+        segment.mapped = buffer;
+        return segment;
+    }
+
+    /**
+     * Додає зміщення запису до індексу; номери між попереднім проіндексованим
+     * та указаним позначаються як відкинуті. Викликається лише потоком
+     * запису.
+     * @param seq номер запису (не менший за {@link #getNextIndexedSeq()})
+     * @param offset зміщення запису у файлі
+     */
+    void index(final long seq, final int offset) {
+        int index = (int) (seq - firstSeq);
+        if (index >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, Math.max(offsets.length * 2, index + 1));
+        }
+        Arrays.fill(offsets, indexed, index, -1);
+        offsets[index] = offset;
+        indexed = index + 1;
+    }
+
+    /**
+     * Робить проіндексовані записи доступними для читання. Викликається лише
+     * потоком запису після того, як записи записані у файл.
+     * @param end кінець останнього запису (зміщення у файлі)
+     */
+    void publish(final int end) {
+        publishedEnd = end;
+        published = indexed;
+    }
+
+    /**
+     * Відкидає проіндексовані, але не опубліковані записи. Викликається лише
+     * потоком запису, якщо записати їх не вдалося.
+     */
+    void discardUnpublished() {
+        indexed = published;
+    }
+
+    private synchronized MappedByteBuffer map(final int size) throws IOException {
+        if (mapped == null || mapped.capacity() < size) {
+            // файл відображається повністю, тому повторне відображення
+            // потрібне лише сегменту, що вийшов за граничний розмір (запис,
+            // більший за сегмент)
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.max(size, channel.size()));
+            }
+        }
+        return mapped;
+    }
+
+    /**
+     * Повертає вміст опублікованого запису як представлення відображеного
+     * файлу лише для читання.
+     * @param index номер запису в сегменті (від 0)
+     * @return вміст запису або null, якщо запис був відкинутий
+     * @throws IOException якщо сегмент не вдалося відобразити
+     */
+    ByteBuffer payload(final int index) throws IOException {
+        int count = published;
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("index = " + index + ", count = " + count);
+        }
+        int offset = offsets[index];
+        if (offset < 0) {
+            return null;
+        }
+        ByteBuffer buffer = map(publishedEnd).duplicate();
+        int length = buffer.getInt(offset);
+        buffer.position(offset + RECORD_HEADER_SIZE).limit(offset + RECORD_HEADER_SIZE + length);
+        return buffer.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Повертає шлях до файлу сегмента.
+     * @return шлях до файлу
+     */
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Повертає номер першого запису.
+     * @return номер першого запису
+     */
+    long getFirstSeq() {
+        return firstSeq;
+    }
+
+    /**
+     * Повертає номер запису, що йде після останнього опублікованого.
+     * @return номер наступного запису
+     */
+    long getNextSeq() {
+        return firstSeq + published;
+    }
+
+    /**
+     * Повертає номер запису, що має бути проіндексований наступним.
+     * Викликається лише потоком запису.
+     * @return номер наступного запису
+     */
+    long getNextIndexedSeq() {
+        return firstSeq + indexed;
+    }
+
+    /**
+     * Повертає кількість опублікованих номерів разом із пропусками.
+     * @return кількість номерів
+     */
+    int getCount() {
+        return published;
+    }
+
+    /**
+     * Повертає кінець останнього опублікованого запису.
+     * @return зміщення у файлі
+     */
+    int getPublishedEnd() {
+        return publishedEnd;
+    }
+
+    /**
+     * Повертає назву кодека, яким закодовані записи.
+     * @return назва кодека або null, якщо заголовок пошкоджений
+     */
+    String getCodecName() {
+        return codecName;
+    }
+}
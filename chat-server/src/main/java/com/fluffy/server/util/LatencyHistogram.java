@@ -0,0 +1,111 @@
+package com.fluffy.server.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Клас гістограми тривалостей для обчислення перцентилів. Значення (у
+ * мікросекундах) групуються в логарифмічні інтервали з кількома
+ * підінтервалами на кожен степінь двійки, тому запис виконується за O(1) без
+ * блокувань, займає фіксований обсяг пам'яті, а відносна похибка перцентиля
+ * не перевищує 1/SUB_BUCKETS.
+ * @author Сивоконь Вадим
+ */
+public class LatencyHistogram {
+    /**
+     * Кількість підінтервалів на кожен степінь двійки (степінь двійки).
+     */
+    private static final int SUB_BUCKETS = 16;
+
+    /**
+     * Двійковий логарифм кількості підінтервалів.
+     */
+    private static final int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+
+    /**
+     * Кількість степенів двійки, що покриваються гістограмою.
+     */
+    private static final int MAGNITUDES = 40;
+
+    /**
+     * Кількість значень в інтервалах.
+     */
+    private final AtomicLongArray counts;
+
+    /**
+     * Загальна кількість значень.
+     */
+    private final LongAdder totalCount;
+
+    /**
+     * Конструктор об'єкта гістограми.
+     */
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray((MAGNITUDES + 1) * SUB_BUCKETS);
+        this.totalCount = new LongAdder();
+    }
+
+    private static int bucketIndex(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+        int subBucket = (int) (value >>> (magnitude - 1)) - SUB_BUCKETS;
+        return Math.min(magnitude * SUB_BUCKETS + subBucket, (MAGNITUDES + 1) * SUB_BUCKETS - 1);
+    }
+
+    private static long bucketUpperBound(final int index) {
+        int magnitude = index / SUB_BUCKETS;
+        int subBucket = index % SUB_BUCKETS;
+        if (magnitude == 0) {
+            return subBucket;
+        }
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (magnitude - 1)) - 1;
+    }
+
+    /**
+     * Записує тривалість.
+     * @param duration тривалість
+     * @param unit одиниця вимірювання тривалості
+     */
+    public void record(final long duration, final TimeUnit unit) {
+        long micros = Math.max(0, unit.toMicros(duration));
+        counts.incrementAndGet(bucketIndex(micros));
+        totalCount.increment();
+    }
+
+    /**
+     * Повертає загальну кількість записаних значень.
+     * @return кількість значень
+     */
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    /**
+     * Повертає наближене значення перцентиля (верхню межу інтервалу, в який
+     * потрапляє перцентиль).
+     * @param percentile перцентиль (від 0 до 100)
+     * @return значення перцентиля (у мікросекундах) або 0, якщо значень немає
+     */
+    public long getPercentile(final double percentile) {
+        long total = 0;
+        for (int i = 0; i < counts.length(); ++i) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); ++i) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return bucketUpperBound(i);
+            }
+        }
+        return bucketUpperBound(counts.length() - 1);
+    }
+}
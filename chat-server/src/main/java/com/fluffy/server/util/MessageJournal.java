@@ -0,0 +1,651 @@
+package com.fluffy.server.util;
+
+import com.fluffy.messaging.MessageCodec;
+import com.fluffy.messaging.MessageCodecs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Клас журналу повідомлень, що лише доповнюється. Журнал складається з
+ * сегментів - файлів, назва яких містить номер першого запису. Сегмент
+ * починається із заголовка (сигнатура та назва кодека, яким закодовані
+ * повідомлення), за яким ідуть записи: довжина вмісту, номер запису,
+ * контрольна сума CRC32 вмісту та сам вміст. Коли сегмент досягає граничного
+ * розміру, створюється новий, а найстаріші сегменти понад установлену
+ * кількість видаляються.
+ * Записи додаються до черги, а окремий потік записує їх у файл пакетами та
+ * викликає fsync один раз на пакет (групова фіксація), тому повідомлення
+ * надсилаються клієнтам без очікування диска, а втрачені під час аварійної
+ * зупинки можуть бути лише записи останнього пакета. Якщо диск не встигає
+ * і черга заповнена, викликач, що може очікувати, спершу чекає місця
+ * ({@link #awaitCapacity()}) обмежений час, а саме додавання не очікує
+ * ніколи: запис, для якого місця немає, відкидається (метрика
+ * server.journal.dropped), а в сегменті залишається пропуск номерів.
+ * Під час відкриття незавершений запис у кінці останнього сегмента
+ * відкидається.
+ * Будь-який діапазон записів читається як закодований вміст без
+ * декодування: записані у файл - з відображених у пам'ять сегментів
+ * ({@link JournalSegment}), ще не записані - з черги.
+ * @author Сивоконь Вадим
+ */
+public class MessageJournal {
+    /**
+     * Тека журналу.
+     */
+    private final Path directory;
+
+    /**
+     * Назва кодека, яким закодовані нові записи.
+     */
+    private final String codecName;
+
+    /**
+     * Кодек, яким закодовані нові записи.
+     */
+    private final MessageCodec codec;
+
+    /**
+     * Граничний розмір сегмента (у байтах).
+     */
+    private final long segmentSize;
+
+    /**
+     * Максимальна кількість сегментів.
+     */
+    private final int maxSegments;
+
+    /**
+     * Час накопичення пакета перед записом (у наносекундах).
+     */
+    private final long flushInterval;
+
+    /**
+     * Місткість черги записів.
+     */
+    private final int queueCapacity;
+
+    /**
+     * Максимальний час очікування місця в черзі (у наносекундах).
+     */
+    private final long appendTimeout;
+
+    /**
+     * Блокування черги записів.
+     */
+    private final ReentrantLock lock;
+
+    /**
+     * Умова появи записів у черзі.
+     */
+    private final Condition notEmpty;
+
+    /**
+     * Умова появи місця в черзі.
+     */
+    private final Condition notFull;
+
+    /**
+     * Записи, що ще не опубліковані в сегменті. Потік запису видаляє записи
+     * з черги лише після їх запису у файл, тому кожен запис завжди доступний
+     * для читання або з черги, або із сегмента.
+     */
+    private final Deque<Record> pending;
+
+    /**
+     * Сегменти за номером першого запису.
+     */
+    private final ConcurrentNavigableMap<Long, JournalSegment> segments;
+
+    /**
+     * Файли старих сегментів, які не вдалося видалити (у Windows файл не
+     * видаляється, поки його відображення використовують читачі); видалення
+     * повторюється під час створення наступного сегмента (використовується
+     * лише потоком запису).
+     */
+    private final List<Path> deferredDeletes;
+
+    /**
+     * Номер наступного запису (доступ - під блокуванням).
+     */
+    private long nextSeq;
+
+    /**
+     * Стан журналу (зміна - під блокуванням).
+     */
+    private volatile boolean active;
+
+    /**
+     * Потік запису.
+     */
+    private Thread writerThread;
+
+    /**
+     * Поточний сегмент (використовується лише потоком запису).
+     */
+    private JournalSegment current;
+
+    /**
+     * Канал поточного сегмента (використовується лише потоком запису).
+     */
+    private FileChannel channel;
+
+    /**
+     * Розмір поточного сегмента (використовується лише потоком запису).
+     */
+    private long segmentPosition;
+
+    /**
+     * Конструктор об'єкта журналу.
+     * @param directory тека журналу
+     * @param codecName назва кодека, яким закодовані повідомлення
+     * @param segmentSize граничний розмір сегмента (у байтах)
+     * @param maxSegments максимальна кількість сегментів
+     * @param flushInterval час накопичення пакета перед записом (у мілісекундах)
+     * @param queueCapacity місткість черги записів
+     * @param appendTimeout максимальний час очікування місця в черзі (у
+     *                      мілісекундах)
+     */
+    public MessageJournal(final Path directory, final String codecName, final long segmentSize,
+                          final int maxSegments, final long flushInterval, final int queueCapacity,
+                          final long appendTimeout) {
+        if (segmentSize <= 0 || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("segmentSize = " + segmentSize);
+        }
+        if (maxSegments <= 0) {
+            throw new IllegalArgumentException("maxSegments <= 0");
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queueCapacity <= 0");
+        }
+        this.directory = directory;
+        this.codecName = codecName;
+        this.codec = MessageCodecs.byName(codecName);
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.flushInterval = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+        this.queueCapacity = queueCapacity;
+        this.appendTimeout = TimeUnit.MILLISECONDS.toNanos(appendTimeout);
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.notFull = lock.newCondition();
+        this.pending = new ArrayDeque<>();
+        this.segments = new ConcurrentSkipListMap<>();
+        this.deferredDeletes = new ArrayList<>();
+    }
+
+    /**
+     * Відкриває журнал: відображає та індексує наявні сегменти, відновлює
+     * останній сегмент та запускає потік запису.
+     * @param name ім'я потоку запису
+     * @throws IOException якщо журнал не вдалося відкрити
+     */
+    public void open(final String name) throws IOException {
+        if (active) {
+            return;
+        }
+        Files.createDirectories(directory);
+
+        segments.clear();
+        deferredDeletes.clear();
+        List<Path> paths = listSegments();
+        // зайві сегменти видаляються до відображення в пам'ять
+        while (paths.size() > maxSegments) {
+            Path path = paths.remove(0);
+            if (!deleteSegmentFile(path)) {
+                deferredDeletes.add(path);
+            }
+        }
+        for (Path path : paths) {
+            JournalSegment segment = JournalSegment.load(path);
+            if (segment.getCodecName() == null) {
+                // заголовок не встиг записатися або пошкоджений - записів немає
+                Files.delete(path);
+            } else {
+                segments.put(segment.getFirstSeq(), segment);
+            }
+        }
+
+        Map.Entry<Long, JournalSegment> last = segments.lastEntry();
+        long seq = last == null ? 1 : last.getValue().getNextSeq();
+        if (last != null && last.getValue().getCodecName().equals(codecName)) {
+            // незавершений запис у кінці не скорочується (відображений файл не
+            // можна скоротити в Windows), а перезаписується наступними
+            current = last.getValue();
+            channel = FileChannel.open(current.getPath(), StandardOpenOption.WRITE);
+            JournalSegment.preallocate(channel, segmentSize);
+            channel.position(current.getPublishedEnd());
+            segmentPosition = current.getPublishedEnd();
+        } else {
+            openSegment(seq);
+        }
+
+        nextSeq = seq;
+        active = true;
+        writerThread = new Thread(this::run, name);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Закриває журнал. Записи, що залишилися в черзі, записуються у файл.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if (!active) {
+                return;
+            }
+            active = false;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Очікує, доки в черзі записів з'явиться місце, не довше за встановлений
+     * час. Викликається перед {@link #append(long, ByteBuffer)} потоками, що
+     * можуть очікувати (не циклом подій), і не під блокуваннями, на які
+     * чекають інші потоки, - так повільний диск гальмує відправників, а не
+     * відкидає їхні повідомлення.
+     * @return чи є місце в черзі (false - час вичерпано, журнал закритий або
+     *         потік перервано)
+     */
+    public boolean awaitCapacity() {
+        lock.lock();
+        try {
+            long nanos = appendTimeout;
+            while (active && pending.size() >= queueCapacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                Metrics.increment("server.journal.queue-full");
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return active;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Додає закодоване повідомлення до журналу без очікування, тому може
+     * викликатися з циклу подій та під блокуванням. Номери записів призначає
+     * викликач; вони мають зростати, а пропуски між ними допускаються (номери
+     * відкинутих записів залишаються в індексі сегмента порожніми). Якщо
+     * черга записів заповнена, запис відкидається.
+     * @param seq номер запису (не менший за {@link #getNextSeq()})
+     * @param payload закодований вміст повідомлення
+     * @return чи був запис прийнятий (false, якщо журнал закритий або черга
+     *         заповнена)
+     */
+    public boolean append(final long seq, final ByteBuffer payload) {
+        lock.lock();
+        try {
+            if (seq < nextSeq) {
+                throw new IllegalArgumentException("seq = " + seq + " < " + nextSeq);
+            }
+            if (!active) {
+                return false;
+            }
+            if (pending.size() >= queueCapacity) {
+                Metrics.increment("server.journal.dropped");
+                return false;
+            }
+            nextSeq = seq + 1;
+            pending.add(new Record(seq, payload));
+            if (pending.size() == 1 || pending.size() == queueCapacity) {
+                // потік запису чекає першого запису пакета або заповнення черги
+                notEmpty.signal();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Повертає кількість записів, що очікують запису у файл.
+     * @return кількість записів
+     */
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Повертає номер найстарішого запису, що зберігається в журналі.
+     * @return номер найстарішого запису або номер наступного, якщо журнал
+     *         порожній
+     */
+    public long getFirstSeq() {
+        Map.Entry<Long, JournalSegment> first = segments.firstEntry();
+        return first != null ? first.getKey() : getNextSeq();
+    }
+
+    /**
+     * Повертає номер запису, що буде доданий наступним.
+     * @return номер наступного запису
+     */
+    public long getNextSeq() {
+        lock.lock();
+        try {
+            return nextSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Читає закодований вміст останніх записів журналу.
+     * @param count максимальна кількість записів
+     * @return вміст записів у порядку додавання
+     * @throws IOException якщо журнал не вдалося прочитати
+     */
+    public List<ByteBuffer> readLast(final int count) throws IOException {
+        return read(Math.max(1, getNextSeq() - count), count);
+    }
+
+    /**
+     * Читає закодований вміст записів, починаючи з указаного номера.
+     * Записані у файл записи повертаються як представлення відображених у
+     * пам'ять сегментів без копіювання; записи сегментів, закодовані іншим
+     * кодеком, перекодовуються поточним. Записи видалених сегментів
+     * пропускаються.
+     * @param fromSeq номер першого запису
+     * @param maxCount максимальна кількість записів
+     * @return вміст записів (лише для читання) у порядку додавання
+     * @throws IOException якщо журнал не вдалося прочитати
+     */
+    public List<ByteBuffer> read(final long fromSeq, final int maxCount) throws IOException {
+        return read(fromSeq, Long.MAX_VALUE, maxCount);
+    }
+
+    /**
+     * Читає закодований вміст останніх записів, що передують указаному
+     * номеру (сторінку історії).
+     * @param beforeSeq номер запису, що не включається до результату
+     * @param count максимальна кількість записів
+     * @return вміст записів (лише для читання) у порядку додавання
+     * @throws IOException якщо журнал не вдалося прочитати
+     */
+    public List<ByteBuffer> readBefore(final long beforeSeq, final int count) throws IOException {
+        return read(Math.max(1, beforeSeq - count), beforeSeq, count);
+    }
+
+    private List<ByteBuffer> read(final long fromSeq, final long toSeq, final int maxCount) throws IOException {
+        List<Record> tail;
+        long tailStart;
+        lock.lock();
+        try {
+            tail = new ArrayList<>(pending);
+            tailStart = pending.isEmpty() ? nextSeq : pending.peekFirst().seq;
+        } finally {
+            lock.unlock();
+        }
+
+        // усі записи до початку черги вже опубліковані в сегментах
+        List<ByteBuffer> result = new ArrayList<>();
+        long seq = fromSeq;
+        while (seq < tailStart && seq < toSeq && result.size() < maxCount) {
+            Map.Entry<Long, JournalSegment> entry = segments.floorEntry(seq);
+            if (entry == null || seq >= entry.getValue().getNextSeq()) {
+                Map.Entry<Long, JournalSegment> next = segments.higherEntry(seq);
+                if (next == null) {
+                    break;
+                }
+                seq = next.getKey();
+                continue;
+            }
+            ByteBuffer payload = payload(entry.getValue(), (int) (seq - entry.getKey()));
+            if (payload != null) {
+                result.add(payload);
+            }
+            ++seq;
+        }
+        for (Record record : tail) {
+            if (result.size() >= maxCount) {
+                break;
+            }
+            if (record.seq >= toSeq) {
+                break;
+            }
+            if (record.seq >= seq) {
+                result.add(record.payload.asReadOnlyBuffer());
+            }
+        }
+        return result;
+    }
+
+    private ByteBuffer payload(final JournalSegment segment, final int index) throws IOException {
+        ByteBuffer payload = segment.payload(index);
+        if (payload == null || segment.getCodecName().equals(codecName)) {
+            return payload;
+        }
+        MessageCodec segmentCodec = MessageCodecs.byName(segment.getCodecName());
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        return ByteBuffer.wrap(codec.encode(segmentCodec.decode(bytes, 0, bytes.length))).asReadOnlyBuffer();
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return paths;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + JournalSegment.SUFFIX)) {
+            for (Path path : stream) {
+                paths.add(path);
+            }
+        }
+        // назви містять номер першого запису, доповнений нулями
+        Collections.sort(paths);
+        return paths;
+    }
+
+    private void openSegment(final long firstSeq) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", firstSeq, JournalSegment.SUFFIX));
+        channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        current = JournalSegment.create(path, firstSeq, codecName, channel, segmentSize);
+        segmentPosition = channel.position();
+        segments.put(firstSeq, current);
+        Metrics.increment("server.journal.segments-created");
+    }
+
+    private void deleteOldSegments() {
+        deferredDeletes.removeIf(path -> deleteSegmentFile(path));
+        while (segments.size() > maxSegments) {
+            Map.Entry<Long, JournalSegment> oldest = segments.pollFirstEntry();
+            // відображення, що вже використовуються читачами, залишаються
+            // дійсними; якщо файл через них не видаляється, видалення
+            // відкладається, а записи поточного пакета не втрачаються
+            if (!deleteSegmentFile(oldest.getValue().getPath())) {
+                deferredDeletes.add(oldest.getValue().getPath());
+            }
+        }
+    }
+
+    private static boolean deleteSegmentFile(final Path path) {
+        try {
+            Files.deleteIfExists(path);
+            return true;
+        } catch (IOException e) {
+            Metrics.increment("server.journal.deferred-deletes");
+            return false;
+        }
+    }
+
+    private List<Record> takeBatch() throws InterruptedException {
+        lock.lock();
+        try {
+            while (active && pending.isEmpty()) {
+                notEmpty.await();
+            }
+            if (active && flushInterval > 0) {
+                // збираємо пакет: записи, додані протягом інтервалу, фіксуються разом
+                long remaining = flushInterval;
+                while (active && remaining > 0 && pending.size() < queueCapacity) {
+                    remaining = notEmpty.awaitNanos(remaining);
+                }
+            }
+            return new ArrayList<>(pending);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void complete(final int count) {
+        lock.lock();
+        try {
+            for (int i = 0; i < count; ++i) {
+                pending.poll();
+            }
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(final List<Record> batch) throws IOException {
+        int size = 0;
+        for (Record record : batch) {
+            size += JournalSegment.RECORD_HEADER_SIZE + record.payload.remaining();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        CRC32 crc = new CRC32();
+        for (Record record : batch) {
+            int length = record.payload.remaining();
+            boolean segmentEmpty = current.getCount() == 0 && buffer.position() == 0;
+            if (!segmentEmpty
+                    && segmentPosition + buffer.position() + JournalSegment.RECORD_HEADER_SIZE + length > segmentSize) {
+                flushBuffer(buffer);
+                rollSegment(record.seq);
+            }
+            crc.reset();
+            crc.update(record.payload.duplicate());
+            // пропуск номерів (відкинуті записи) не потребує нового сегмента
+            current.index(record.seq, (int) (segmentPosition + buffer.position()));
+            buffer.putInt(length).putLong(record.seq).putInt((int) crc.getValue()).put(record.payload.duplicate());
+        }
+        flushBuffer(buffer);
+    }
+
+    private void flushBuffer(final ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            segmentPosition += channel.write(buffer);
+        }
+        buffer.clear();
+        current.publish((int) segmentPosition);
+    }
+
+    private void rollSegment(final long firstSeq) throws IOException {
+        channel.force(false);
+        channel.close();
+        openSegment(firstSeq);
+        deleteOldSegments();
+    }
+
+    private void recover() {
+        // незаписаний хвіст відкидається, щоб наступні записи йшли одразу за
+        // останнім опублікованим
+        current.discardUnpublished();
+        try {
+            channel.position(current.getPublishedEnd());
+            segmentPosition = current.getPublishedEnd();
+        } catch (IOException e) {
+            // файл недоступний - наступний пакет теж завершиться помилкою
+        }
+    }
+
+    private void run() {
+        while (true) {
+            List<Record> batch;
+            try {
+                batch = takeBatch();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (batch.isEmpty()) {
+                if (!active) {
+                    break;
+                }
+                continue;
+            }
+
+            long startTime = System.nanoTime();
+            try {
+                write(batch);
+                channel.force(false);
+                Metrics.add("server.journal.appends", batch.size());
+                Metrics.increment("server.journal.fsyncs");
+                Metrics.recordLatency("server.journal.fsync-latency", System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+            } catch (IOException e) {
+                // записи пакета втрачено, наступні пакети записуються далі
+                Metrics.increment("server.journal.errors");
+                recover();
+            }
+            complete(batch.size());
+        }
+
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            // не вдалося закрити сегмент
+        }
+    }
+
+    /**
+     * Клас запису, що очікує запису у файл.
+     */
+    private static final class Record {
+        /**
+         * Номер запису.
+         */
+        private final long seq;
+
+        /**
+         * Закодований вміст повідомлення.
+         */
+        private final ByteBuffer payload;
+
+        private Record(final long seq, final ByteBuffer payload) {
+            this.seq = seq;
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.fluffy.server.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Допоміжний клас, що зберігає метрики сервера: лічильники подій,
+ * показники, значення яких обчислюється в момент запиту, та гістограми
+ * тривалостей.
+ * @author Сивоконь Вадим
+ */
+public final class Metrics {
+    private Metrics() { }
+
+    /**
+     * Лічильники подій.
+     */
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    /**
+     * Показники, що обчислюються в момент запиту.
+     */
+    private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    /**
+     * Гістограми тривалостей.
+     */
+    private static final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * Збільшує лічильник на одиницю.
+     * @param name назва лічильника
+     */
+    public static void increment(final String name) {
+        add(name, 1);
+    }
+
+    /**
+     * Збільшує лічильник на вказане значення.
+     * @param name назва лічильника
+     * @param value значення
+     */
+    public static void add(final String name, final long value) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).add(value);
+    }
+
+    /**
+     * Реєструє показник під вказаною назвою.
+     * @param name назва показника
+     * @param gauge функція, що обчислює значення показника
+     */
+    public static void registerGauge(final String name, final LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Скасовує реєстрацію показника.
+     * @param name назва показника
+     */
+    public static void unregisterGauge(final String name) {
+        gauges.remove(name);
+    }
+
+    /**
+     * Записує тривалість до гістограми.
+     * @param name назва гістограми
+     * @param duration тривалість
+     * @param unit одиниця вимірювання тривалості
+     */
+    public static void recordLatency(final String name, final long duration, final TimeUnit unit) {
+        histograms.computeIfAbsent(name, key -> new LatencyHistogram()).record(duration, unit);
+    }
+
+    /**
+     * Повертає гістограму тривалостей.
+     * @param name назва гістограми
+     * @return гістограма або null, якщо значень ще не було
+     */
+    public static LatencyHistogram getHistogram(final String name) {
+        return histograms.get(name);
+    }
+
+    /**
+     * Повертає поточні значення всіх лічильників та показників, упорядковані
+     * за назвою. Для кожної гістограми повертаються кількість значень та
+     * перцентилі p50, p90, p99 і p999 (у мікросекундах).
+     * @return значення метрик
+     */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            result.put(entry.getKey() + ".count", histogram.getCount());
+            result.put(entry.getKey() + ".p50-micros", histogram.getPercentile(50));
+            result.put(entry.getKey() + ".p90-micros", histogram.getPercentile(90));
+            result.put(entry.getKey() + ".p99-micros", histogram.getPercentile(99));
+            result.put(entry.getKey() + ".p999-micros", histogram.getPercentile(99.9));
+        }
+        return result;
+    }
+}
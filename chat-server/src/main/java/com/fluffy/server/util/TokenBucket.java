@@ -0,0 +1,102 @@
+package com.fluffy.server.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Клас обмежувача частоти подій за алгоритмом "відро з токенами". Токени
+ * поповнюються із заданою швидкістю до максимальної місткості, що дозволяє
+ * пропускати короткі сплески подій без перевищення середньої частоти.
+ * @author Сивоконь Вадим
+ */
+public class TokenBucket {
+    /**
+     * Кількість наносекунд в одній секунді.
+     */
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Швидкість поповнення (токенів на секунду).
+     */
+    private final double ratePerSecond;
+
+    /**
+     * Максимальна кількість токенів.
+     */
+    private final double capacity;
+
+    /**
+     * Поточна кількість токенів.
+     */
+    private double tokens;
+
+    /**
+     * Час останнього поповнення (у наносекундах).
+     */
+    private long lastRefillTime;
+
+    /**
+     * Конструктор об'єкта обмежувача.
+     * @param ratePerSecond швидкість поповнення (токенів на секунду)
+     * @param capacity максимальна кількість токенів (розмір сплеску)
+     */
+    public TokenBucket(final double ratePerSecond, final double capacity) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("ratePerSecond <= 0");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity < 1");
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefillTime = System.nanoTime();
+    }
+
+    private void refill(final long now) {
+        tokens = Math.min(capacity, tokens + (now - lastRefillTime) * ratePerSecond / NANOS_PER_SECOND);
+        lastRefillTime = now;
+    }
+
+    /**
+     * Забирає один токен, якщо він доступний.
+     * @return чи вдалося забрати токен
+     */
+    public synchronized boolean tryAcquire() {
+        refill(System.nanoTime());
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Повертає логічне значення - чи заповнене відро повністю (тобто
+     * обмежувач не відрізняється від щойно створеного).
+     * @return чи заповнене відро
+     */
+    public synchronized boolean isFull() {
+        refill(System.nanoTime());
+        return tokens >= capacity;
+    }
+
+    /**
+     * Забирає один токен, очікуючи рівно стільки, скільки потрібно для його
+     * появи.
+     * @throws InterruptedException якщо очікування було перерване
+     */
+    public void acquire() throws InterruptedException {
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                refill(System.nanoTime());
+                if (tokens >= 1) {
+                    tokens -= 1;
+                    return;
+                }
+                waitNanos = (long) Math.ceil((1 - tokens) * NANOS_PER_SECOND / ratePerSecond);
+            }
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}